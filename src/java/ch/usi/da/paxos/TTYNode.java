@@ -24,6 +24,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.apache.zookeeper.KeeperException;
@@ -147,13 +148,17 @@ public class TTYNode {
 			if (paxos.getLearner() == null) {
 				return; // not a learner
 			}
+			Decision[] decisions = new Decision[1024];
 			while(true) {
 				try {
-					Decision d = paxos.getLearner().getDecisions().take();
-					if(valuelogger.isDebugEnabled()){
-						valuelogger.debug(d);
-					}else if(valuelogger.isInfoEnabled() && !d.getValue().isSkip() && d.getValue().getValue().length > 0){
-						valuelogger.info(d.getValue().asString());
+					int n = paxos.getLearner().getDecisions(decisions,1,TimeUnit.SECONDS);
+					for(int i=0;i<n;i++){
+						Decision d = decisions[i];
+						if(valuelogger.isDebugEnabled()){
+							valuelogger.debug(d);
+						}else if(valuelogger.isInfoEnabled() && !d.getValue().isSkip() && d.getValue().getValue().length > 0){
+							valuelogger.info(d.getValue().asString());
+						}
 					}
 				} catch (InterruptedException e) {
 					logger.error(e);
@@ -171,7 +176,8 @@ public class TTYNode {
 			}else if(token[0].startsWith("u")){
 				type = ControlType.Unsubscribe;
 			}
-			return new Control(1,type,Integer.parseInt(token[1]),Integer.parseInt(token[2]));
+			int weight = token.length > 3 ? Integer.parseInt(token[3]) : 0; // values per round
+			return new Control(1,type,Integer.parseInt(token[1]),Integer.parseInt(token[2]),weight);
 		}else{
 			return null;
 		}
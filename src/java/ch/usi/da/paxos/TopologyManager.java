@@ -25,6 +25,7 @@ import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -83,6 +84,12 @@ public class TopologyManager implements Watcher {
 
 	protected final String config_path = "config";
 
+	protected final String clock_path = "clock";
+
+	protected final String catchup_path = "catchup";
+
+	protected final String position_path = "position";
+
 	protected final Map<String,String> configuration = new ConcurrentHashMap<String,String>();
 
 	protected final List<Integer> nodes = new ArrayList<Integer>();
@@ -227,6 +234,20 @@ public class TopologyManager implements Watcher {
 		Util.checkThenCreateZooNode(path + "/" + config_path + "/" + ConfigKey.trim_modulo,"0".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
 		Util.checkThenCreateZooNode(path + "/" + config_path + "/" + ConfigKey.trim_quorum,"2".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
 		Util.checkThenCreateZooNode(path + "/" + config_path + "/" + ConfigKey.auto_trim,"0".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
+		Util.checkThenCreateZooNode(path + "/" + config_path + "/" + ConfigKey.learner_dedup_memory,"8388608".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
+		Util.checkThenCreateZooNode(path + "/" + config_path + "/" + ConfigKey.learner_catchup,"1".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
+		Util.checkThenCreateZooNode(path + "/" + config_path + "/" + ConfigKey.value_cache_size,"134217728".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
+		Util.checkThenCreateZooNode(path + "/" + config_path + "/" + ConfigKey.value_cache_age,"30000".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
+		Util.checkThenCreateZooNode(path + "/" + config_path + "/" + ConfigKey.acceptor_threads,"1".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
+		Util.checkThenCreateZooNode(path + "/" + config_path + "/" + ConfigKey.acceptor_snapshot_interval,"0".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
+		Util.checkThenCreateZooNode(path + "/" + config_path + "/" + ConfigKey.p1_adaptive,"1".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
+		Util.checkThenCreateZooNode(path + "/" + config_path + "/" + ConfigKey.value_pack_size,"0".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
+		Util.checkThenCreateZooNode(path + "/" + config_path + "/" + ConfigKey.value_pack_time,"1".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
+		Util.checkThenCreateZooNode(path + "/" + config_path + "/" + ConfigKey.inflight_window,"0".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
+		Util.checkThenCreateZooNode(path + "/" + config_path + "/" + ConfigKey.fast_takeover,"1".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
+		Util.checkThenCreateZooNode(path + "/" + config_path + "/" + ConfigKey.trim_interval,"0".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
+		Util.checkThenCreateZooNode(path + "/" + config_path + "/" + ConfigKey.coordinator_shards,"1".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
+		Util.checkThenCreateZooNode(path + "/" + config_path + "/" + ConfigKey.multi_ring_m,"1".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
 		l = zoo.getChildren(path + "/" + config_path,false);
 		for(String k : l){
 			String v = new String(zoo.getData(path + "/" + config_path + "/" + k,false,null));
@@ -240,6 +261,7 @@ public class TopologyManager implements Watcher {
 		Util.checkThenCreateZooNode(prefix + "/" + config_path + "/" + ConfigKey.multi_ring_delta_t,"100".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
 		Util.checkThenCreateZooNode(prefix + "/" + config_path + "/" + ConfigKey.deliver_skip_messages,"1".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
 		Util.checkThenCreateZooNode(prefix + "/" + config_path + "/" + ConfigKey.multi_ring_start_time,"0".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
+		Util.checkThenCreateZooNode(prefix + "/" + config_path + "/" + ConfigKey.multi_ring_adaptive,"0".getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
 		l = zoo.getChildren(prefix + "/" + config_path,false);
 		for(String k : l){
 			String v = new String(zoo.getData(prefix + "/" + config_path + "/" + k,false,null));
@@ -414,6 +436,112 @@ public class TopologyManager implements Watcher {
 		return network;
 	}
 
+	/**
+	 * Publish the multi-ring skip clock of this topology (ephemeral; written by the coordinator)
+	 * 
+	 * @param clock
+	 */
+	public void setSkipClock(byte[] clock){
+		String p = prefix + "/" + clock_path + "/" + topologyID;
+		try {
+			if(zoo.exists(p,false) == null){
+				Util.checkThenCreateZooNode(prefix + "/" + clock_path,null,Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
+				Util.checkThenCreateZooNode(p,clock,Ids.OPEN_ACL_UNSAFE,CreateMode.EPHEMERAL,zoo);
+			}else{
+				zoo.setData(p,clock,-1);
+			}
+		} catch (KeeperException e) {
+			logger.error(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return the published skip clocks of all topologies (by topology id)
+	 */
+	public Map<Integer,byte[]> getSkipClocks(){
+		Map<Integer,byte[]> clocks = new HashMap<Integer,byte[]>();
+		try {
+			for(String s : zoo.getChildren(prefix + "/" + clock_path,false)){
+				try {
+					clocks.put(Integer.valueOf(s),zoo.getData(prefix + "/" + clock_path + "/" + s,false,null));
+				} catch (NoNodeException e){ // coordinator gone
+				}
+			}
+		} catch (NoNodeException e){
+		} catch (KeeperException e) {
+			logger.error(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return clocks;
+	}
+
+	/**
+	 * Publish the learner catch-up server of this node
+	 * 
+	 * @param port
+	 */
+	public void setCatchUpPort(int port){
+		publishPort(catchup_path,port);
+	}
+
+	/**
+	 * @param id the node ID
+	 * @return the learner catch-up server of the node or NULL
+	 */
+	public InetSocketAddress getCatchUpAddress(int id){
+		return getPortAddress(catchup_path,id);
+	}
+
+	/**
+	 * Publish the merge position server of the (elastic) learner of this node
+	 * 
+	 * @param port
+	 */
+	public void setPositionPort(int port){
+		publishPort(position_path,port);
+	}
+
+	/**
+	 * @param id the node ID
+	 * @return the merge position server of the node or NULL
+	 */
+	public InetSocketAddress getPositionAddress(int id){
+		return getPortAddress(position_path,id);
+	}
+
+	private void publishPort(String service,int port){
+		String host = addr.getHostString();
+		if(System.getenv("EC2") != null){
+			host = System.getenv("EC2");
+		}
+		try {
+			Util.checkThenCreateZooNode(path + "/" + service,null,Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT,zoo);
+			Util.checkThenCreateZooNode(path + "/" + service + "/" + nodeID,(host + ";" + port).getBytes(),Ids.OPEN_ACL_UNSAFE,CreateMode.EPHEMERAL,zoo);
+		} catch (KeeperException e) {
+			logger.error(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private InetSocketAddress getPortAddress(String service,int id){
+		try {
+			String s = new String(zoo.getData(path + "/" + service + "/" + id,false,null));
+			InetAddress ip = InetAddress.getByName(s.split(";")[0]);
+			return new InetSocketAddress(ip,Integer.parseInt(s.split(";")[1]));
+		} catch (NoNodeException e){
+		} catch (KeeperException e) {
+			logger.error(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (UnknownHostException e) {
+		}
+		return null;
+	}
+
 	/**
 	 * @return the configuration map
 	 */
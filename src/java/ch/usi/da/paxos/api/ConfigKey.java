@@ -109,6 +109,11 @@ abstract public class ConfigKey {
 	 */	
 	public static final String multi_ring_start_time = "multi_ring_start_time";
 
+	/**
+	 * see RingManager for default
+	 */	
+	public static final String multi_ring_adaptive = "multi_ring_adaptive";
+
 	/**
 	 * see RingManager for default
 	 */	
@@ -129,4 +134,74 @@ abstract public class ConfigKey {
 	 */	
 	public static final String auto_trim = "auto_trim";
 
+	/**
+	 * see RingManager for default
+	 */	
+	public static final String learner_dedup_memory = "learner_dedup_memory";
+
+	/**
+	 * see RingManager for default
+	 */	
+	public static final String learner_catchup = "learner_catchup";
+
+	/**
+	 * see RingManager for default
+	 */	
+	public static final String value_cache_size = "value_cache_size";
+
+	/**
+	 * see RingManager for default
+	 */	
+	public static final String value_cache_age = "value_cache_age";
+
+	/**
+	 * see RingManager for default
+	 */	
+	public static final String acceptor_threads = "acceptor_threads";
+
+	/**
+	 * see RingManager for default
+	 */	
+	public static final String acceptor_snapshot_interval = "acceptor_snapshot_interval";
+
+	/**
+	 * see RingManager for default
+	 */	
+	public static final String p1_adaptive = "p1_adaptive";
+
+	/**
+	 * see RingManager for default
+	 */	
+	public static final String value_pack_size = "value_pack_size";
+
+	/**
+	 * see RingManager for default
+	 */	
+	public static final String value_pack_time = "value_pack_time";
+
+	/**
+	 * see RingManager for default
+	 */	
+	public static final String inflight_window = "inflight_window";
+
+	/**
+	 * see RingManager for default
+	 */	
+	public static final String fast_takeover = "fast_takeover";
+
+	/**
+	 * see RingManager for default
+	 */	
+	public static final String trim_interval = "trim_interval";
+
+	/**
+	 * see RingManager for default
+	 */	
+	public static final String coordinator_shards = "coordinator_shards";
+
+	/**
+	 * see RingManager for default
+	 */	
+	public static final String multi_ring_m = "multi_ring_m";
+
 }
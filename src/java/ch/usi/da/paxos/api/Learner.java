@@ -19,6 +19,7 @@ package ch.usi.da.paxos.api;
  */
 
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import ch.usi.da.paxos.storage.Decision;
 
@@ -34,5 +35,30 @@ import ch.usi.da.paxos.storage.Decision;
 public interface Learner {
 	public BlockingQueue<Decision> getDecisions();
 	
+	/**
+	 * Move the delivered decisions into the array (lock-free; one consumer
+	 * thread at a time); waits up to timeout if there is none
+	 * 
+	 * @param decisions the destination
+	 * @param timeout
+	 * @param unit
+	 * @return the number of decisions (0: timeout)
+	 * @throws InterruptedException
+	 */
+	public int getDecisions(Decision[] decisions, long timeout, TimeUnit unit) throws InterruptedException;
+
+	/**
+	 * Push the delivered decisions to a handler instead of getDecisions()
+	 * 
+	 * @param handler the handler (null: pull with getDecisions() again)
+	 * @param direct true: call the handler on the delivery thread, which is
+	 *        the network thread (or an acceptor stripe or catch-up thread
+	 *        holding the learner lock) or the LearnerUnpacker of a
+	 *        LearnerRole, and the merge thread of a MultiLearnerRole or
+	 *        ElasticLearnerRole; one at a time, and it must not block.
+	 *        false: on a dispatcher thread in batches
+	 */
+	public void setDecisionHandler(DecisionHandler handler, boolean direct);
+	
 	public void setSafeInstance(Integer ring,Long instance);
 }
@@ -33,6 +33,21 @@ public interface StableStorage {
 
 	public void putBallot(Long instance, int ballot);
 	
+	/**
+	 * Promise the ballot for all instances in [from,to) in one write
+	 * 
+	 * @param from first instance (inclusive)
+	 * @param to last instance (exclusive)
+	 * @param ballot
+	 */
+	public void putBallotRange(Long from, Long to, int ballot);
+	
+	/**
+	 * One lookup (use it instead of containsBallot() and getBallot())
+	 * 
+	 * @param instance
+	 * @return the promised ballot (0: none)
+	 */
 	public int getBallot(Long instance);
 	
 	public boolean containsBallot(Long instance);
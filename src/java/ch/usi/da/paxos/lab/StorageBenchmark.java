@@ -0,0 +1,217 @@
+package ch.usi.da.paxos.lab;
+/*
+ * Copyright (c) 2015 Università della Svizzera italiana (USI)
+ *
+ * This file is part of URingPaxos.
+ *
+ * URingPaxos is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * URingPaxos is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.apache.commons.math3.random.RandomDataGenerator;
+
+import ch.usi.da.paxos.api.StableStorage;
+import ch.usi.da.paxos.message.Value;
+import ch.usi.da.paxos.ring.ValueType;
+import ch.usi.da.paxos.storage.BerkeleyStorage;
+import ch.usi.da.paxos.storage.Decision;
+import ch.usi.da.paxos.storage.RocksDbStorage;
+import ch.usi.da.paxos.storage.SyncBerkeleyStorage;
+
+/**
+ * Name: StorageBenchmark<br>
+ * Description: <br>
+ *
+ * Runs every StableStorage through an acceptor trace: a Phase1Range
+ * reservation every p1_range instances, per instance a ballot check,
+ * putBallot/putDecision and a getDecision of an older instance (relearn),
+ * and a trim every trim_modulo instances.
+ *
+ * Reports throughput, allocated bytes per instance (storage only; the
+ * values are generated before the run) and p50/p99/max latency of one
+ * instance. The database storages get a new temporary directory per run
+ * (warm up and measured run), which is deleted afterwards.
+ *
+ * usage: StorageBenchmark [value_size (fix|normal|exponential|zipf|bytes)]
+ *        [instances] [storage class ...]
+ *
+ * Creation date: Oct 21, 2015<br>
+ * $Id$
+ *
+ * @author Samuel Benz benz@geoid.ch
+ */
+public class StorageBenchmark {
+
+	private final static String[] storages = {
+		"ch.usi.da.paxos.storage.NoStorage",
+		"ch.usi.da.paxos.storage.InMemory",
+		"ch.usi.da.paxos.storage.BufferArray",
+		"ch.usi.da.paxos.storage.CyclicArray",
+		"ch.usi.da.paxos.storage.BerkeleyStorage",
+		"ch.usi.da.paxos.storage.SyncBerkeleyStorage",
+		"ch.usi.da.paxos.storage.RocksDbStorage" };
+
+	private final int p1_range = 5000; // p1_preexecution_number
+
+	private final int trim_modulo = 10000;
+
+	private final int relearn_lag = 100;
+
+	private final Value[] values;
+
+	private final ValueType type;
+
+	/**
+	 * @param type the value size distribution
+	 * @param value_size the fixed size
+	 */
+	public StorageBenchmark(ValueType type, int value_size){
+		this.type = type;
+		RandomDataGenerator random = new RandomDataGenerator();
+		random.reSeed(42);
+		values = new Value[1024];
+		for(int i=0;i<values.length;i++){
+			values[i] = new Value("bench:" + i,type.getValue(random,value_size));
+		}
+	}
+
+	/**
+	 * @param storage
+	 * @param instances
+	 * @return the result line
+	 */
+	public String run(StableStorage storage, int instances){
+		long[] latency = new long[instances];
+		long bytes = 0;
+		int ballot = 10;
+		long alloc = allocatedBytes();
+		long start = System.nanoTime();
+		for(int n=0;n<instances;n++){
+			long i = n+1;
+			long t = System.nanoTime();
+			if(n % p1_range == 0){ // Phase1Range
+				storage.putBallotRange(i,i+p1_range,ballot);
+			}
+			Value v = values[n % values.length];
+			int b = storage.getBallot(i);
+			if(b > 0 && b <= ballot){ // Phase2
+				storage.putBallot(i,ballot);
+				storage.putDecision(i,new Decision(0,i,ballot,v));
+			}
+			if(i > relearn_lag){ // Relearn
+				storage.getDecision(i-relearn_lag);
+			}
+			if(n > 0 && n % trim_modulo == 0){ // Trim
+				storage.trim(i-relearn_lag);
+			}
+			latency[n] = System.nanoTime()-t;
+			bytes = bytes + v.getValue().length;
+		}
+		long time = System.nanoTime()-start;
+		alloc = allocatedBytes()-alloc;
+		Arrays.sort(latency);
+		double sec = time/1000000000.0;
+		return String.format("%-45s %-11s %10.0f inst/s %8.1f MB/s %10d B/inst  p50 %7.1f us  p99 %8.1f us  max %9.1f us",
+				storage.getClass().getName(),type,instances/sec,bytes/sec/(1024*1024),alloc/instances,
+				latency[instances/2]/1000.0,latency[(int)(instances*0.99)]/1000.0,latency[instances-1]/1000.0);
+	}
+
+	/**
+	 * @param c the storage class
+	 * @param dir the database directory of this run
+	 * @return a new storage
+	 * @throws Exception
+	 */
+	private static StableStorage create(String c, File dir) throws Exception {
+		if(c.equals(BerkeleyStorage.class.getName())){
+			return new BerkeleyStorage(dir,false,true);
+		}else if(c.equals(SyncBerkeleyStorage.class.getName())){
+			return new SyncBerkeleyStorage(dir);
+		}else if(c.equals(RocksDbStorage.class.getName())){
+			return new RocksDbStorage(dir,true);
+		}
+		return (StableStorage) Class.forName(c).newInstance();
+	}
+
+	private static void delete(File f){
+		File[] files = f.listFiles();
+		if(files != null){
+			for(File c : files){
+				delete(c);
+			}
+		}
+		f.delete();
+	}
+
+	private static long allocatedBytes(){
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean){
+			return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		String size = "32768";
+		int instances = 100000;
+		String[] classes = storages;
+		if(args.length > 0){
+			size = args[0];
+		}
+		if(args.length > 1){
+			instances = Integer.parseInt(args[1]);
+		}
+		if(args.length > 2){
+			classes = Arrays.copyOfRange(args,2,args.length);
+		}
+		ValueType type = ValueType.parse(size);
+		StorageBenchmark bench = new StorageBenchmark(type,type == ValueType.FIX ? Integer.parseInt(size) : 32768);
+		for(String c : classes){
+			StableStorage storage = null;
+			File dir = null;
+			try {
+				for(int run=0;run<2;run++){ // warm up and measured run, each on an empty database
+					dir = Files.createTempDirectory("ringpaxos-bench").toFile();
+					storage = create(c,dir);
+					if(run == 0){
+						bench.run(storage,Math.max(1,instances/10));
+					}else{
+						System.out.println(bench.run(storage,instances));
+					}
+					storage.close();
+					storage = null;
+					delete(dir);
+					dir = null;
+				}
+			} catch (Throwable e) { // e.g. CyclicArray without JNI
+				System.out.println(String.format("%-45s skipped (%s)",c,e));
+			} finally {
+				if(storage != null){
+					storage.close();
+				}
+				if(dir != null){
+					delete(dir);
+				}
+			}
+		}
+	}
+
+}
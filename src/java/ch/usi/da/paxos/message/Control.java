@@ -42,11 +42,25 @@ public class Control implements Serializable {
 	
 	private final int ringID;
 	
+	private final int weight;
+	
 	public Control(int id, ControlType type, int groupID, int ringID){
+		this(id,type,groupID,ringID,0);
+	}
+
+	/**
+	 * @param id
+	 * @param type
+	 * @param groupID
+	 * @param ringID
+	 * @param weight values per round of the ring in the learner merge (0: unchanged)
+	 */
+	public Control(int id, ControlType type, int groupID, int ringID, int weight){
 		this.id = id;
 		this.type = type;
 		this.groupID = groupID;
 		this.ringID = ringID;
+		this.weight = weight;
 	}
 	
 	public int getID(){
@@ -85,9 +99,13 @@ public class Control implements Serializable {
 	public int getRingID(){
 		return ringID;
 	}
+
+	public int getWeight(){
+		return weight;
+	}
 	
 	public String toString(){
-		return "control id: " + id + " type: " + type + " in group " + groupID + " ring " + ringID;
+		return "control id: " + id + " type: " + type + " in group " + groupID + " ring " + ringID + (weight > 0 ? " weight " + weight : "");
 	}
 
 	public boolean equals(Object obj) {
@@ -117,11 +135,13 @@ public class Control implements Serializable {
 		// int  id
 		// short type
 		// int   group
-		// long  position
+		// int   ring
+		// int   weight
 		buffer.putInt(c.getID());
 		buffer.putShort((short)c.getType().getId());
 		buffer.putInt(c.getGroupID());
-		buffer.putInt(c.getRingID());		
+		buffer.putInt(c.getRingID());
+		buffer.putInt(c.getWeight());
 		return buffer.array();
 	}
 
@@ -138,7 +158,8 @@ public class Control implements Serializable {
 			ControlType type = ControlType.fromId(buffer.getShort());
 			int group = buffer.getInt();
 			int ring = buffer.getInt();
-			Control c = new Control(id,type,group,ring);
+			int weight = buffer.remaining() >= 4 ? buffer.getInt() : 0;
+			Control c = new Control(id,type,group,ring,weight);
 			return c;
 		} catch (Exception e) {
 			return null;
@@ -264,6 +264,9 @@ public class Message implements Serializable {
 		int length = 32;
 		if(m.getValue() != null){
 			length = length + m.getValue().getByteID().length + 4 + m.getValue().getValue().length + 1;
+			if(m.getValue().getSkip() > 0){
+				length = length + 8;
+			}
 		}
 		return length;
 	}
@@ -305,6 +308,8 @@ public class Message implements Serializable {
 		//   byte[]ID
 		//   int   value length
 		//   byte[]value
+		//   byte  flags (batch: 0x01, skip: 0x02)
+		//   long  skip (if flag 0x02)
 		b.putLong(m.getInstance());
 		b.putInt(m.getSender());
 		b.putShort((short)m.getReceiver().getId());
@@ -317,10 +322,16 @@ public class Message implements Serializable {
 			b.put(m.getValue().getByteID());
 			b.putInt(m.getValue().getValue().length);
 			b.put(m.getValue().getValue());
+			byte flags = 0x00;
 			if(m.getValue().isBatch()){
-				b.put((byte) 0x01);
-			}else{
-				b.put((byte) 0x00);
+				flags |= 0x01;
+			}
+			if(m.getValue().getSkip() > 0){
+				flags |= 0x02;
+			}
+			b.put(flags);
+			if(m.getValue().getSkip() > 0){
+				b.putLong(m.getValue().getSkip());
 			}
 		}else{
 			b.putInt(-1);
@@ -350,13 +361,12 @@ public class Message implements Serializable {
 			int v_length = buffer.getInt();
 			byte[] vb = new byte[v_length];
 			buffer.get(vb);
-			byte[] batch = new byte[1];
-			buffer.get(batch);
-			if(batch[0] > 0){
-				value = new Value(id,vb,true);
-			}else{
-				value = new Value(id,vb,false);
+			byte flags = buffer.get();
+			long skip = 0;
+			if((flags & 0x02) != 0){
+				skip = buffer.getLong();
 			}
+			value = new Value(id,vb,(flags & 0x01) != 0,skip);
 		}
 		Message msg = new Message(instance,sender,role,type,ballot,value_ballot,value);
 		msg.setVoteCount(vote_count);
@@ -79,7 +79,11 @@ public enum MessageType {
 	/**
 	 * new type for RingPaxos (learners to coord.)
 	 */
-	Relearn(12);
+	Relearn(12),
+	/**
+	 * new type for RingPaxos (acceptor asks the ring for a missing value)
+	 */
+	ValueRequest(13);
 	
 	private final int id;
 	
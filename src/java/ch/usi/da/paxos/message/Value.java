@@ -19,6 +19,7 @@ package ch.usi.da.paxos.message;
  */
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 /**
  * Name: Value<br>
@@ -41,10 +42,16 @@ public class Value implements Serializable {
 	
 	private final static String skipID  = "SKIP";
 	
+	private final static String fillID  = "SKIP:FILL";
+	
 	private final static String control  = "control";
 	
+	private final static String pack  = "PACK";
+	
 	private final boolean batch;
 	
+	private final long skip; // skipped multi-ring values after this value
+	
 	/**
 	 * Public constructor
 	 * 
@@ -57,6 +64,7 @@ public class Value implements Serializable {
 		this.id = ID.getBytes();
 		this.value = value;
 		this.batch = false;
+		this.skip = 0;
 	}
 
 	/**
@@ -68,10 +76,24 @@ public class Value implements Serializable {
 	 * 
 	 */
 	public Value(String ID, byte[] value, boolean batch){
+		this(ID,value,batch,0);
+	}
+
+	/**
+	 * Public constructor
+	 * 
+	 * @param ID the value id
+	 * @param value the bytes
+	 * @param batch is batch Value
+	 * @param skip the number of skipped values (multi-ring) after this value
+	 * 
+	 */
+	public Value(String ID, byte[] value, boolean batch, long skip){
 		this.ID = ID;
 		this.id = ID.getBytes();
 		this.value = value;
 		this.batch = batch;
+		this.skip = skip;
 	}
 
 	/**
@@ -97,8 +119,27 @@ public class Value implements Serializable {
 		return value;
 	}
 	
+	/**
+	 * @return the number of skipped values (multi-ring) after this value
+	 */
+	public long getSkip(){
+		return skip;
+	}
+
+	/**
+	 * @param skip
+	 * @return this value carrying skip
+	 */
+	public Value withSkip(long skip){
+		return skip == this.skip ? this : new Value(ID,value,batch,skip);
+	}
+
 	public String toString(){
-		if(isBatch()){
+		if(skip > 0 && !isSkip()){
+			return withSkip(0).toString() + " skip:" + skip;
+		}else if(isSkip()){
+			return("<skip " + skip + "> (" + ID + ")");
+		}else if(isBatch()){
 			return("<batch>");
 		}else if(isControl()){
 			return((Control.fromWire(value)).toString() + " (" + ID + ")");
@@ -112,7 +153,9 @@ public class Value implements Serializable {
 	}
 
 	public String asString(){
-		if(isBatch()){
+		if(isSkip()){
+			return("<skip " + skip + ">");
+		}else if(isBatch()){
 			return("<batch>");
 		}else if(isControl()){
 			return (Control.fromWire(value)).toString();
@@ -142,18 +185,47 @@ public class Value implements Serializable {
 		return this.getID().startsWith(Value.skipID);
 	}
 
+	/**
+	 * @return true if this is an empty skip of a coordinator shard, which
+	 *  only closes an instance and is not delivered
+	 */
+	public boolean isFill() {
+		return this.getID().startsWith(Value.fillID);
+	}
+
 	public boolean isControl() {
 		return this.getID().startsWith(Value.control);
 	}
 
+	public boolean isPack() {
+		return this.getID().startsWith(Value.pack);
+	}
+
 	public boolean isBatch() {
 		return this.batch;
 	}
 
+	/**
+	 * @param ID a skip ID
+	 * @param skip the number of skipped values
+	 * @return a value which only skips
+	 */
+	public static Value skip(String ID, long skip){
+		return new Value(ID,ByteBuffer.allocate(8).putLong(skip).array(),false,skip);
+	}
+
 	public static String getSkipID(){
 		return skipID + ":" + System.currentTimeMillis() + ":" + System.nanoTime();
 	}
 	
+	public static String getFillID(){
+		return fillID + ":" + System.currentTimeMillis() + ":" + System.nanoTime();
+	}
+	
+	public static String getPackID(){
+		return pack + ":" + System.currentTimeMillis() + ":" + System.nanoTime();
+	}
+	
 	public static String getControlID(){
 		return control + ":" + System.currentTimeMillis() + ":" + System.nanoTime();
 	}
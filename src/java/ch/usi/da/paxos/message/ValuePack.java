@@ -0,0 +1,118 @@
+package ch.usi.da.paxos.message;
+/*
+ * Copyright (c) 2015 Università della Svizzera italiana (USI)
+ *
+ * This file is part of URingPaxos.
+ *
+ * URingPaxos is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * URingPaxos is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import ch.usi.da.paxos.api.PaxosRole;
+
+/**
+ * Name: ValuePack<br>
+ * Description: <br>
+ *
+ * Values of different proposers packed by the coordinator into one instance.
+ *
+ * A pack is a Value with a pack ID (see Value.isPack()) in two forms:
+ * the list form carries only the IDs of the packed values (Phase2 and
+ * fast mode Decision); the batch form carries the packed values in the
+ * proposer batch format (stable storage and safe mode Decision).
+ *
+ * Creation date: Oct 23, 2015<br>
+ * $Id$
+ *
+ * @author Samuel Benz benz@geoid.ch
+ */
+public final class ValuePack {
+
+	private final static Logger logger = Logger.getLogger(ValuePack.class);
+
+	private ValuePack(){
+	}
+
+	/**
+	 * @param ID the pack ID
+	 * @param IDs the packed value IDs
+	 * @return the pack in list form
+	 */
+	public static Value create(String ID, List<String> IDs){
+		int length = 4;
+		for(String s : IDs){
+			length = length + 4 + s.getBytes().length;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.putInt(IDs.size());
+		for(String s : IDs){
+			byte[] b = s.getBytes();
+			buffer.putInt(b.length);
+			buffer.put(b);
+		}
+		return new Value(ID,buffer.array());
+	}
+
+	/**
+	 * @param pack a pack in list or batch form
+	 * @return the packed value IDs
+	 */
+	public static List<String> getIDs(Value pack){
+		List<String> IDs = new ArrayList<String>();
+		ByteBuffer buffer = ByteBuffer.wrap(pack.getValue());
+		if(pack.isBatch()){
+			while(buffer.remaining() > 0){
+				try {
+					IDs.add(Message.fromBuffer(buffer).getValue().getID());
+				} catch (Exception e) {
+					logger.error("ValuePack could not de-serialize batch message!",e);
+				}
+			}
+		}else if(buffer.remaining() >= 4){
+			int n = buffer.getInt();
+			for(int i=0;i<n;i++){
+				byte[] b = new byte[buffer.getInt()];
+				buffer.get(b);
+				IDs.add(new String(b));
+			}
+		}
+		return IDs;
+	}
+
+	/**
+	 * @param ID the pack ID
+	 * @param values the packed values (in pack order)
+	 * @return the pack in batch form
+	 */
+	public static Value toBatch(String ID, List<Value> values){
+		List<Message> messages = new ArrayList<Message>(values.size());
+		int length = 0;
+		for(Value v : values){
+			Message m = new Message(0,0,PaxosRole.Leader,MessageType.Value,0,0,v);
+			messages.add(m);
+			length = length + Message.length(m);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		for(Message m : messages){
+			Message.toBuffer(buffer,m);
+		}
+		return new Value(ID,buffer.array(),true);
+	}
+
+}
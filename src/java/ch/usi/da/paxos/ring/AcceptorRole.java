@@ -18,8 +18,17 @@ package ch.usi.da.paxos.ring;
  * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.log4j.Logger;
 
@@ -30,8 +39,12 @@ import ch.usi.da.paxos.api.StableStorage;
 import ch.usi.da.paxos.message.Message;
 import ch.usi.da.paxos.message.MessageType;
 import ch.usi.da.paxos.message.Value;
+import ch.usi.da.paxos.message.ValuePack;
 import ch.usi.da.paxos.storage.Decision;
 import ch.usi.da.paxos.storage.NoStorage;
+import ch.usi.da.paxos.storage.Snapshot;
+import ch.usi.da.paxos.storage.Snapshotable;
+import ch.usi.da.paxos.storage.ValueCache;
 
 /**
  * Name: AcceptorRole<br>
@@ -56,17 +69,85 @@ public class AcceptorRole extends Role {
 	/*
 	 * Temporary Value storage to allow indirect consensus.
 	 */
-	private final Map<String,Value> learned = new ConcurrentHashMap<String,Value>();
+	private final ValueCache learned;
+	
+	/*
+	 * Phase2 messages waiting for a value requested from the ring (expire
+	 * after missing_age ms, in request order).
+	 */
+	private final Map<String,Missing> missing = new LinkedHashMap<String,Missing>(100,0.75F,false){
+		private static final long serialVersionUID = -1204400128020327063L;
+			protected boolean removeEldestEntry(Map.Entry<String, Missing> eldest) {  
+				return size() > 10000;
+	}};
+	
+	private final long missing_age;
 
-	private long highest_seen_instance = 0;
+	private volatile long highest_seen_instance = 0;
+	
+	/*
+	 * Highest seen instance per coordinator shard (instance % shards)
+	 */
+	private int shards = 1;
+	
+	private long[] shard_seen_instance;
+	
+	private volatile long highest_decided_instance = 0;
+	
+	private long[] shard_decided_instance; // per coordinator shard
+	
+	/*
+	 * Recent instances for which the stored value is the decided one
+	 * (slot instance & mask); Phase2 also stores values which are not
+	 * chosen in the end
+	 */
+	private final AtomicLongArray stable = new AtomicLongArray(262144);
+	
+	private volatile long last_trimmed_instance = 0;
+	
+	/*
+	 * Phase1/Phase2/Decision are processed by instance % threads (1: network thread)
+	 */
+	private int threads = 1;
+	
+	private final List<BlockingQueue<Message>> stripes = new ArrayList<BlockingQueue<Message>>();
+	
+	/*
+	 * Periodic checkpoints of in-memory storage (0: disabled)
+	 */
+	private long snapshot_interval = 0;
+	
+	private Snapshot snapshot = null;
 	
-	private long last_trimmed_instance = 0;
+	private boolean catchup = true; // serve recovering learners from storage
 	
 	/**
 	 * @param ring
 	 */
 	public AcceptorRole(RingManager ring) {
 		this.ring = ring;
+		long cache_size = 134217728;
+		long cache_age = 30000;
+		if(ring.getConfiguration().containsKey(ConfigKey.value_cache_size)){
+			cache_size = Long.parseLong(ring.getConfiguration().get(ConfigKey.value_cache_size));
+			logger.info("Acceptor value_cache_size: " + cache_size);
+		}
+		if(ring.getConfiguration().containsKey(ConfigKey.value_cache_age)){
+			cache_age = Long.parseLong(ring.getConfiguration().get(ConfigKey.value_cache_age));
+			logger.info("Acceptor value_cache_age: " + cache_age);
+		}
+		learned = new ValueCache(cache_size,cache_age);
+		missing_age = cache_age > 0 ? cache_age : 30000;
+		if(ring.getConfiguration().containsKey(ConfigKey.coordinator_shards)){
+			shards = Math.max(1,Integer.parseInt(ring.getConfiguration().get(ConfigKey.coordinator_shards)));
+			logger.info("Acceptor coordinator_shards: " + shards);
+		}
+		shard_seen_instance = new long[shards];
+		shard_decided_instance = new long[shards];
+		if(ring.getConfiguration().containsKey(ConfigKey.acceptor_threads)){
+			threads = Math.max(1,Integer.parseInt(ring.getConfiguration().get(ConfigKey.acceptor_threads)));
+			logger.info("Acceptor acceptor_threads: " + threads);
+		}
 		String storage_class = "ch.usi.da.paxos.storage.NoStorage";
 		if(ring.getConfiguration().containsKey(ConfigKey.stable_storage)){
 			storage_class = ring.getConfiguration().get(ConfigKey.stable_storage);
@@ -80,14 +161,111 @@ public class AcceptorRole extends Role {
 			storage = new NoStorage();
 			logger.error("Could not initilaize stable storage engine!", e);
 		}
+		if(ring.getConfiguration().containsKey(ConfigKey.learner_catchup)){
+			catchup = ring.getConfiguration().get(ConfigKey.learner_catchup).equals("1");
+			logger.info("Acceptor learner_catchup: " + (catchup ? "enabled" : "disabled"));
+		}
+		if(ring.getConfiguration().containsKey(ConfigKey.acceptor_snapshot_interval)){
+			snapshot_interval = Long.parseLong(ring.getConfiguration().get(ConfigKey.acceptor_snapshot_interval));
+			logger.info("Acceptor acceptor_snapshot_interval: " + snapshot_interval);
+		}
+		if(snapshot_interval > 0 && storage instanceof Snapshotable){
+			String path = "/tmp";
+			String db_path = System.getenv("DB");
+			if(db_path != null){
+				path = db_path;
+			}
+			snapshot = new Snapshot(new File(path + "/ringpaxos-snapshot/" + ring.getRingID() + "-" + ring.getNodeID()));
+			try {
+				long highest = snapshot.restore(storage);
+				if(highest > 0){
+					highest_seen_instance = highest;
+					Arrays.fill(shard_seen_instance,highest);
+					last_trimmed_instance = storage.getLastTrimInstance();
+					logger.info("Acceptor restored " + snapshot.getCount() + " decisions up to instance " + highest + " from " + snapshot.getFile());
+				}
+			} catch (IOException e) {
+				logger.error("Acceptor could not restore snapshot " + snapshot.getFile() + "!",e);
+			}
+		}
 	}
 
 	@Override
 	public void run() {
+		if(threads > 1){
+			for(int i=0;i<threads;i++){
+				BlockingQueue<Message> queue = new LinkedBlockingQueue<Message>();
+				stripes.add(queue);
+				Thread t = new Thread(new Stripe(queue));
+				t.setName("AcceptorStripe-" + i);
+				t.start();
+			}
+		}
+		if(snapshot != null){
+			Thread t = new Thread(new SnapshotWriter());
+			t.setName("AcceptorSnapshot");
+			t.start();
+		}
+		if(catchup && !(storage instanceof NoStorage)){
+			try {
+				CatchUpServer server = new CatchUpServer(ring,this);
+				Thread t = new Thread(server);
+				t.setName("CatchUpServer");
+				t.start();
+				ring.setCatchUpPort(server.getPort());
+				logger.info("Acceptor catch-up server at port " + server.getPort());
+			} catch (IOException e) {
+				logger.error("Acceptor could not start catch-up server!",e);
+			}
+		}
 		ring.getNetwork().registerCallback(this);
 	}
 
 	public void deliver(RingManager fromRing,Message m){
+		if(!stripes.isEmpty() && (m.getType() == MessageType.Phase1 || m.getType() == MessageType.Phase2 || m.getType() == MessageType.Decision)){
+			// one queue per stripe keeps the forward order of an instance
+			stripes.get((int)(m.getInstance() % stripes.size())).add(m);
+		}else if(m.getType() == MessageType.Relearn){
+			relearn(fromRing,m);
+		}else{
+			process(fromRing,m);
+		}
+	}
+
+	/**
+	 * Answer a learner's Relearn (instance: first; value: count) with the
+	 * decisions in stable storage which this acceptor saw decided; the
+	 * coordinator decides the others again. The decisions of a local
+	 * learner are not sent on the ring; the ones of a remote learner are
+	 * (the learner streams larger gaps by the CatchUpServer).
+	 * 
+	 * @param fromRing
+	 * @param m
+	 */
+	private void relearn(RingManager fromRing,Message m){
+		int range = m.getValue() != null ? Util.byteToInt(m.getValue().getValue()) : 1;
+		int count = 0;
+		for(long i=m.getInstance();i<m.getInstance()+range;i++){
+			if(i <= last_trimmed_instance){
+				continue; // the learner recovers from the trim instance
+			}
+			Decision d = isStable(i) && storage.containsDecision(i) ? storage.getDecision(i) : null;
+			if(d != null && d.getValue() != null && d.getValue().getValue().length > 0){
+				Message n = new Message(i,ring.getNodeID(),PaxosRole.Learner,MessageType.Decision,d.getBallot(),d.getBallot(),d.getValue());
+				if(m.getSender() == ring.getNodeID() && ring.getNetwork().getLearner() != null){
+					ring.getNetwork().getLearner().deliver(ring,n); // only the requesting learner
+				}else{
+					ring.getNetwork().send(n);
+				}
+				count++;
+			}else{
+				ring.getNetwork().receive(new Message(i,m.getSender(),PaxosRole.Leader,MessageType.Relearn,0,0,null));
+			}
+		}
+		logger.debug("Acceptor answered Relearn " + m.getInstance() + "-" + (m.getInstance()+range-1) + " with " + count + " decisions");
+	}
+
+	private void process(RingManager fromRing,Message m){
 		/*if(logger.isDebugEnabled()){
 			logger.debug("acceptor " + ring.getNodeID() + " received " + m);
 		}*/
@@ -96,11 +274,16 @@ public class AcceptorRole extends Role {
 		Value value = null;
 		int value_ballot = 0;
 
-		if(m.getValue() != null && !learned.containsKey(m.getValue().getID())){
-			learned.put(m.getValue().getID(),m.getValue());
-			value = m.getValue();
-		}else if(m.getValue() != null && learned.containsKey(m.getValue().getID())){
+		if(m.getValue() != null && m.getType() != MessageType.Phase1Range){
 			value = learned.get(m.getValue().getID());
+			if(value != null){
+				value = value.withSkip(m.getValue().getSkip()); // the skip belongs to the instance
+			}else{
+				value = m.getValue();
+				if(value.getValue().length > 0){
+					learned.put(value);
+				}
+			}
 		}
 		
 		// read stable storage/ promised ballots
@@ -111,9 +294,7 @@ public class AcceptorRole extends Role {
 				value = d.getValue();
 			}
 		}
-		if(storage.containsBallot(instance)){
-			ballot = storage.getBallot(instance);
-		}
+		ballot = storage.getBallot(instance); // 0: none
 		
 		// process messages
 		if(m.getType() == MessageType.Phase1){
@@ -143,16 +324,18 @@ public class AcceptorRole extends Role {
 			}
 		}else if(m.getType() == MessageType.Phase1Range){
 			value = m.getValue();
-			if(instance > last_trimmed_instance && instance > highest_seen_instance){ // reject if start instance is leq highest promised or decided instance
+			if(instance > last_trimmed_instance && instance > getHighestSeenInstance((int)(instance % shards))){ // reject if start instance is leq highest promised or decided instance (of the shard)
 				ballot = m.getBallot();
 				m.incrementVoteCount();
 				int p1_range = Util.byteToInt(value.getValue());
-				for(long i=m.getInstance();i<p1_range+m.getInstance();i++){
-					storage.putBallot(i,ballot);
-					if(i>highest_seen_instance){
-						highest_seen_instance=i;
+				if(shards == 1){
+					storage.putBallotRange(m.getInstance(),m.getInstance()+p1_range,ballot);
+				}else{ // every shards-th instance
+					for(int i=0;i<p1_range;i++){
+						storage.putBallot(m.getInstance()+(long)i*shards,ballot);
 					}
 				}
+				seen(m.getInstance()+(long)(p1_range-1)*shards);
 				if(ring.getNodeID() == ring.getLastAcceptor()){
 					Message n = new Message(instance,m.getSender(),PaxosRole.Leader,MessageType.Phase1Range,ballot,value_ballot,value);
 					n.setVoteCount(m.getVoteCount());
@@ -173,6 +356,19 @@ public class AcceptorRole extends Role {
 					value = m.getValue();
 					value_ballot = m.getValueBallot();
 				}
+				List<String> packed = null;
+				if(value != null && value.isPack()){
+					packed = ValuePack.getIDs(value);
+					if(!value.isBatch()){
+						long skip = value.getSkip();
+						value = assemble(m,value.getID(),packed); // null until all packed values are available
+						if(value != null){
+							value = value.withSkip(skip);
+						}
+					}
+				}else if(value != null && value.getValue().length == 0 && m.getValue() != null){
+					requestValue(m,m.getValue().getID()); // value not (or no longer) cached
+				}
 				if(value != null && value.getValue().length > 0){ // 2b
 					m.incrementVoteCount(); // always increment vote count (even value is not equal!) otherwise you risk undecided instances when |coord| > 1 & one process fails
 					Value send_value = null;
@@ -180,11 +376,26 @@ public class AcceptorRole extends Role {
 					storage.putDecision(instance,d);
 					if(m.getBallot() > 99 || (m.getValue() != null && m.getValue().isSkip())){
 						send_value = value; // safe mode (don't remove value byte[])
+					}else if(packed != null){
+						send_value = ValuePack.create(value.getID(),packed).withSkip(value.getSkip()); // fast mode (only the IDs)
 					}else{
-						send_value = new Value(value.getID(),new byte[0]); // fast mode
+						send_value = new Value(value.getID(),new byte[0],false,value.getSkip()); // fast mode
+					}
+					learned.bind(value.getID(),instance);
+					if(packed != null){
+						for(String ID : packed){
+							learned.bind(ID,instance);
+						}
 					}
 					if(m.getVoteCount() >= ring.getQuorum()){
+						decided(instance);
+						stable(instance);
 						learned.remove(value.getID());
+						if(packed != null){
+							for(String ID : packed){
+								learned.remove(ID);
+							}
+						}
 						Message n = new Message(instance,ring.getNodeID(),PaxosRole.Learner,MessageType.Decision,ballot,value_ballot,send_value);
 						if(ring.getNetwork().getLeader() != null){
 							ring.getNetwork().getLeader().deliver(ring,n);
@@ -206,21 +417,69 @@ public class AcceptorRole extends Role {
 				}
 			}
 		}else if(m.getType() == MessageType.Value){
-			learned.put(m.getValue().getID(),m.getValue());
+			Message p = removeMissing(m.getValue().getID());
+			if(p != null){
+				logger.debug("Acceptor received missing value " + m.getValue().getID() + " for instance " + p.getInstance());
+				deliver(fromRing,p); // resume Phase2
+			}
+		}else if(m.getType() == MessageType.ValueRequest){
+			if(m.getSender() != ring.getNodeID()){
+				Value v = learned.get(m.getValue().getID());
+				if(v == null && storage.containsDecision(instance)){
+					Decision d = storage.getDecision(instance);
+					if(d != null && d.getValue() != null && d.getValue().equals(m.getValue())){
+						v = d.getValue();
+					}
+				}
+				if(v != null && v.getValue().length > 0){
+					ring.getNetwork().send(new Message(instance,ring.getNodeID(),PaxosRole.Acceptor,MessageType.Value,0,0,v));
+				}else{
+					ring.getNetwork().send(m); // ask the next node
+				}
+			}else{
+				removeMissing(m.getValue().getID()); // nobody in the ring has the value
+				logger.warn("Acceptor could not fetch value " + m.getValue().getID() + " for instance " + instance);
+			}
 		}else if(m.getType() == MessageType.Decision){
 			value = m.getValue(); // insert/update stable storage for 2b
 			if(value != null){
 				Decision d = new Decision(fromRing.getRingID(),instance,m.getValueBallot(),value);
-				if(learned.containsKey(value.getID())){
-					d = new Decision(fromRing.getRingID(),instance,m.getBallot(),learned.get(value.getID()));
+				Value v = learned.get(value.getID());
+				if(v != null){
+					d = new Decision(fromRing.getRingID(),instance,m.getBallot(),v.withSkip(value.getSkip()));
+				}
+				if(d.getValue().isPack() && !d.getValue().isBatch()){
+					List<String> packed = ValuePack.getIDs(d.getValue());
+					Decision voted = storage.containsDecision(instance) ? storage.getDecision(instance) : null;
+					boolean assembled = true;
+					if(voted != null && voted.getValue() != null && voted.getValue().isBatch() && voted.getValue().getID().equals(value.getID())){
+						d = null; // keep the voted (assembled) pack
+						stable(instance);
+					}else{
+						// only assembled packs are stored; the missing values are requested and
+						// the decision is processed again when they arrive
+						Value b = assemble(m,d.getValue().getID(),packed);
+						assembled = b != null;
+						d = assembled ? new Decision(fromRing.getRingID(),instance,d.getBallot(),b.withSkip(value.getSkip())) : null;
+					}
+					if(assembled){
+						for(String ID : packed){
+							learned.remove(ID);
+						}
+					}
 				}
-				storage.putDecision(instance,d);
+				if(d != null){
+					storage.putDecision(instance,d);
+					stable(instance);
+				}
+				decided(instance);
 				learned.remove(value.getID());
 			}
 		}else if(m.getType() == MessageType.Trim){
 			if(storage.trim(instance)){
 				logger.debug("Acceptor trimmed log to instance " + instance);
 				last_trimmed_instance = instance;
+				learned.evictBelow(instance);
 				m.setVoteCount(m.getVoteCount()+1);
 				ring.getNetwork().send(m);
 			}else{
@@ -228,15 +487,194 @@ public class AcceptorRole extends Role {
 			}
 		}
 		
+		seen(instance);
+	}
+
+	private synchronized void seen(long instance){
 		if(instance>highest_seen_instance){
 			highest_seen_instance=instance;
 		}
+		int s = (int)(instance % shards);
+		if(instance>shard_seen_instance[s]){
+			shard_seen_instance[s]=instance;
+		}
+	}
+
+	private void stable(long instance){
+		stable.set((int)(instance & (stable.length()-1)),instance);
+	}
+	
+	/**
+	 * @param instance
+	 * @return true if the stored decision of this instance is known to be chosen
+	 */
+	boolean isStable(long instance){
+		return stable.get((int)(instance & (stable.length()-1))) == instance;
+	}
+
+	private synchronized void decided(long instance){
+		if(instance>highest_decided_instance){
+			highest_decided_instance=instance;
+		}
+		int s = (int)(instance % shards);
+		if(instance>shard_decided_instance[s]){
+			shard_decided_instance[s]=instance;
+		}
+	}
+
+	/**
+	 * @param m the Phase2 message to resume (null: don't request missing values)
+	 * @param ID the pack ID
+	 * @param packed the packed value IDs
+	 * @return the pack in batch form or null if a value is missing
+	 */
+	private Value assemble(Message m,String ID,List<String> packed){
+		List<Value> values = new ArrayList<Value>(packed.size());
+		boolean complete = true;
+		for(String p : packed){
+			Value v = learned.get(p);
+			if(v == null){
+				complete = false;
+				if(m == null){
+					break;
+				}
+				requestValue(m,p);
+			}else{
+				values.add(v);
+			}
+		}
+		return complete ? ValuePack.toBatch(ID,values) : null;
+	}
+
+	private void requestValue(Message m,String ID){
+		synchronized(missing){
+			expireMissing();
+			Missing r = missing.get(ID);
+			if(r != null){
+				r.message = m; // keep the latest vote count
+				return;
+			}
+			missing.put(ID,new Missing(m));
+		}
+		logger.debug("Acceptor request missing value " + ID + " for instance " + m.getInstance());
+		ring.getNetwork().send(new Message(m.getInstance(),ring.getNodeID(),PaxosRole.Acceptor,MessageType.ValueRequest,0,0,new Value(ID,new byte[0])));
+	}
+
+	private Message removeMissing(String ID){
+		synchronized(missing){
+			expireMissing();
+			Missing r = missing.remove(ID);
+			return r != null ? r.message : null;
+		}
+	}
+
+	/**
+	 * Forget the requests older than missing_age (the value is lost)
+	 */
+	private void expireMissing(){
+		long time = System.currentTimeMillis();
+		Iterator<Missing> i = missing.values().iterator();
+		while(i.hasNext()){
+			Missing r = i.next(); // oldest request first
+			if(time-r.time <= missing_age){
+				break;
+			}
+			logger.debug("Acceptor gave up missing value for instance " + r.message.getInstance());
+			i.remove();
+		}
+	}
+
+	private static class Missing {
+
+		private final long time = System.currentTimeMillis();
+
+		private Message message;
+
+		public Missing(Message message){
+			this.message = message;
+		}
+	}
+
+	private class Stripe implements Runnable {
+
+		private final BlockingQueue<Message> queue;
+
+		public Stripe(BlockingQueue<Message> queue){
+			this.queue = queue;
+		}
+
+		@Override
+		public void run() {
+			while(true){
+				try {
+					process(ring,queue.take());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				} catch (Exception e){
+					logger.error("Acceptor stripe error!",e);
+				}
+			}
+		}
+	}
+
+	private class SnapshotWriter implements Runnable {
+
+		@Override
+		public void run() {
+			while(true){
+				try {
+					Thread.sleep(snapshot_interval);
+					long time = System.nanoTime();
+					((Snapshotable)storage).snapshot(snapshot);
+					if(logger.isDebugEnabled()){
+						logger.debug("Acceptor wrote snapshot (" + snapshot.getCount() + " decisions) in " + (System.nanoTime()-time)/1000000 + " ms");
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				} catch (IOException e) {
+					snapshot.abort();
+					logger.error("Acceptor could not write snapshot " + snapshot.getFile() + "!",e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the highest promised or decided instance
+	 */
+	public long getHighestSeenInstance() {
+		return highest_seen_instance;
+	}
+
+	/**
+	 * @param shard the coordinator shard (instance % shards)
+	 * @return the highest promised or decided instance of the shard
+	 */
+	public synchronized long getHighestSeenInstance(int shard) {
+		return shard_seen_instance[shard];
+	}
+
+	/**
+	 * @return the highest instance this acceptor knows as decided
+	 */
+	public long getHighestDecidedInstance() {
+		return highest_decided_instance;
+	}
+
+	/**
+	 * @param shard the coordinator shard (instance % shards)
+	 * @return the highest instance of the shard this acceptor knows as decided
+	 */
+	public synchronized long getHighestDecidedInstance(int shard) {
+		return shard_decided_instance[shard];
 	}
 
 	/**
 	 * @return the learned
 	 */
-	public Map<String, Value> getLearned() {
+	public ValueCache getLearned() {
 		return learned;
 	}
 
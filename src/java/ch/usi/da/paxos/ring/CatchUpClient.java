@@ -0,0 +1,137 @@
+package ch.usi.da.paxos.ring;
+/*
+ * Copyright (c) 2015 Università della Svizzera italiana (USI)
+ *
+ * This file is part of URingPaxos.
+ *
+ * URingPaxos is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * URingPaxos is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import ch.usi.da.paxos.message.Message;
+
+/**
+ * Name: CatchUpClient<br>
+ * Description: <br>
+ *
+ * Fetches the decisions [from,to] from the CatchUpServer of an acceptor
+ * and delivers them to the learner like decisions from the ring; the
+ * learner is live again once its reorder window is drained.
+ *
+ * Creation date: Oct 28, 2015<br>
+ * $Id$
+ *
+ * @author Samuel Benz benz@geoid.ch
+ */
+public class CatchUpClient implements Runnable {
+
+	private final static Logger logger = Logger.getLogger(CatchUpClient.class);
+
+	private final RingManager ring;
+
+	private final LearnerRole learner;
+
+	private final long from;
+
+	private final long to;
+
+	/**
+	 * @param ring
+	 * @param learner
+	 * @param from first instance
+	 * @param to last instance
+	 */
+	public CatchUpClient(RingManager ring,LearnerRole learner,long from,long to){
+		this.ring = ring;
+		this.learner = learner;
+		this.from = from;
+		this.to = to;
+	}
+
+	@Override
+	public void run() {
+		long next = from;
+		try {
+			List<Integer> acceptors = new ArrayList<Integer>(ring.getAcceptors());
+			Collections.shuffle(acceptors); // spread the load
+			for(int a : acceptors){
+				InetSocketAddress addr = ring.getCatchUpAddress(a);
+				if(addr == null || learner.terminate){
+					continue;
+				}
+				next = fetch(addr,next);
+				if(next > to){
+					break;
+				}
+			}
+		} finally {
+			learner.catchUpDone(next);
+		}
+	}
+
+	/**
+	 * @param addr
+	 * @param start first instance
+	 * @return the first instance not received
+	 */
+	private long fetch(InetSocketAddress addr,long start){
+		long next = start;
+		Socket socket = new Socket();
+		try {
+			socket.connect(addr,1000);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeLong(start);
+			out.writeLong(to);
+			out.flush();
+			int count;
+			while((count = in.readInt()) > 0){
+				for(int i=0;i<count;i++){
+					byte[] b = new byte[in.readInt()];
+					in.readFully(b);
+					Message m = Message.fromWire(b);
+					if(m != null){
+						learner.deliver(ring,m);
+						next = m.getInstance()+1;
+					}
+				}
+				out.writeInt(learner.terminate ? 0 : 1);
+				out.flush();
+			}
+			next = Math.max(next,in.readLong());
+			logger.info("Learner caught up instance " + start + "-" + (next-1) + " from " + addr);
+		} catch (IOException e) {
+			logger.warn("Learner catch-up from " + addr + " failed at instance " + next + ": " + e);
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+		return next;
+	}
+
+}
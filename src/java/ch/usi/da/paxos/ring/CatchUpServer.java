@@ -0,0 +1,183 @@
+package ch.usi.da.paxos.ring;
+/*
+ * Copyright (c) 2015 Università della Svizzera italiana (USI)
+ *
+ * This file is part of URingPaxos.
+ *
+ * URingPaxos is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * URingPaxos is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.apache.log4j.Logger;
+
+import ch.usi.da.paxos.api.PaxosRole;
+import ch.usi.da.paxos.api.StableStorage;
+import ch.usi.da.paxos.message.Message;
+import ch.usi.da.paxos.message.MessageType;
+import ch.usi.da.paxos.storage.Decision;
+
+/**
+ * Name: CatchUpServer<br>
+ * Description: <br>
+ *
+ * Streams the decisions of the acceptor storage to a recovering learner
+ * over a direct TCP connection (outside of the ring).
+ *
+ * Request: from (long), to (long)<br>
+ * Response: chunks of count (int) and count times length (int) + message;
+ * the learner acknowledges every chunk with an int (0: stop). At most two
+ * chunks are not acknowledged. The end is a count of 0 followed by the
+ * first instance not sent (long); the stream stops at the first instance
+ * which is not known to be decided (the learner relearns the rest).
+ *
+ * Creation date: Oct 28, 2015<br>
+ * $Id$
+ *
+ * @author Samuel Benz benz@geoid.ch
+ */
+public class CatchUpServer implements Runnable {
+
+	private final static Logger logger = Logger.getLogger(CatchUpServer.class);
+
+	public final static int chunk = 1000; // decisions
+
+	private final static int window = 2; // not acknowledged chunks
+
+	private final RingManager ring;
+
+	private final AcceptorRole acceptor;
+
+	private final ServerSocket server;
+
+	/**
+	 * @param ring
+	 * @param acceptor
+	 * @throws IOException
+	 */
+	public CatchUpServer(RingManager ring,AcceptorRole acceptor) throws IOException {
+		this.ring = ring;
+		this.acceptor = acceptor;
+		server = new ServerSocket(0,50,ring.getNodeAddress().getAddress());
+	}
+
+	/**
+	 * @return the local port
+	 */
+	public int getPort(){
+		return server.getLocalPort();
+	}
+
+	@Override
+	public void run() {
+		while(!server.isClosed()){
+			try {
+				Socket s = server.accept();
+				Thread t = new Thread(new Session(s));
+				t.setName("CatchUpSession");
+				t.start();
+			} catch (IOException e) {
+				logger.error("CatchUpServer accept error",e);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * stop the server
+	 */
+	public void close(){
+		try {
+			server.close();
+		} catch (IOException e) {
+		}
+	}
+
+	private class Session implements Runnable {
+
+		private final Socket socket;
+
+		public Session(Socket socket){
+			this.socket = socket;
+		}
+
+		@Override
+		public void run() {
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				long from = in.readLong();
+				long to = Math.min(in.readLong(),acceptor.getHighestDecidedInstance());
+				StableStorage storage = acceptor.getStableStorage();
+				long i = from;
+				int unacked = 0;
+				boolean stop = i <= storage.getLastTrimInstance(); // not available
+				while(!stop && i <= to){
+					int n = (int)Math.min(chunk,to-i+1);
+					Decision[] c = new Decision[n];
+					int count = 0;
+					while(count < n){
+						// phase 2 stores the vote before the instance is chosen
+						Decision d = acceptor.isStable(i+count) && storage.containsDecision(i+count) ? storage.getDecision(i+count) : null;
+						if(d == null || d.getValue() == null){
+							stop = true;
+							break;
+						}
+						c[count++] = d;
+					}
+					if(count == 0){
+						break;
+					}
+					out.writeInt(count);
+					for(int j=0;j<count;j++){
+						Message m = new Message(i+j,ring.getNodeID(),PaxosRole.Learner,MessageType.Decision,c[j].getBallot(),c[j].getBallot(),c[j].getValue());
+						byte[] b = Message.toWire(m);
+						out.writeInt(b.length);
+						out.write(b);
+					}
+					out.flush();
+					i = i + count;
+					unacked++;
+					if(unacked >= window){
+						unacked--;
+						if(in.readInt() == 0){
+							break;
+						}
+					}
+				}
+				out.writeInt(0);
+				out.writeLong(i);
+				out.flush();
+				while(unacked-- > 0){ // don't reset the connection before the end is read
+					in.readInt();
+				}
+				logger.info("CatchUpServer sent instance " + from + "-" + (i-1) + " to " + socket.getRemoteSocketAddress());
+			} catch (IOException e) {
+				logger.warn("CatchUpServer session " + socket.getRemoteSocketAddress() + " closed: " + e);
+			} finally {
+				try {
+					socket.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+}
@@ -19,12 +19,12 @@ package ch.usi.da.paxos.ring;
  */
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedTransferQueue;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TransferQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
@@ -35,6 +35,7 @@ import ch.usi.da.paxos.api.PaxosRole;
 import ch.usi.da.paxos.message.Message;
 import ch.usi.da.paxos.message.MessageType;
 import ch.usi.da.paxos.message.Value;
+import ch.usi.da.paxos.message.ValuePack;
 import ch.usi.da.paxos.storage.Promise;
 
 /**
@@ -52,17 +53,60 @@ public class CoordinatorRole extends Role {
 
 	private final RingManager ring;
 	
+	private final boolean takeover; // replaces a failed coordinator
+	
+	private boolean fast_takeover = true;
+	
 	private final AtomicLong instance = new AtomicLong();
 
-	private final TransferQueue<Promise> promises = new LinkedTransferQueue<Promise>();
+	/*
+	 * This coordinator proposes in the instances i with i % shards == shard
+	 */
+	private final int shard;
+
+	private final int shards;
+
+	private final PromisePool promises;
+	
+	/*
+	 * Values which arrived while no instance was reserved
+	 */
+	private final ConcurrentLinkedDeque<Message> pending = new ConcurrentLinkedDeque<Message>();
 	
 	private final Map<Long,Promise> phase1_in_transit = new ConcurrentHashMap<Long,Promise>();
 
 	private final Map<Long,Promise> phase1range_in_transit = new ConcurrentHashMap<Long,Promise>();
 
+	/*
+	 * Phase1 timed out; resent by the reserver loop (not on the timer thread)
+	 */
+	private final ConcurrentLinkedQueue<Promise> phase1_timeout = new ConcurrentLinkedQueue<Promise>();
+
 	private int reserved = 10000;
 	
+	private final ReservationController controller;
+	
+	private int range_in_transit = 0;
+	
+	/*
+	 * Bound for the undecided value instances (null: unbounded)
+	 */
+	private FlowControl flow = null;
+	
 	private int resend_time = 2000;
+	
+	private final TimerWheel timer = TimerWheel.getShared();
+	
+	/*
+	 * Pack values of different proposers into one instance (0: disabled)
+	 */
+	private int pack_size = 0;
+	
+	private int pack_time = 1; // ms
+	
+	private final List<String> pack = new ArrayList<String>();
+	
+	private long pack_date = 0;
 		
 	private volatile boolean fastmode = true; // True == Phase1Range
 	
@@ -74,6 +118,14 @@ public class CoordinatorRole extends Role {
 	
 	private int trim_quorum = 2;
 	
+	private int trim_interval = 0; // ms (0: disable)
+	
+	private long trim_instance = 0; // instance at the last Safe request
+	
+	private long trim_date = 0;
+	
+	private volatile long safe_date = 0; // Safe in transit since (0: none)
+	
 	private long last_trimmed_instance = 0;
 	
 	public int multi_ring_lambda = 9000; 
@@ -82,23 +134,69 @@ public class CoordinatorRole extends Role {
 
 	public AtomicLong value_count = new AtomicLong(0);
 	
+	/*
+	 * Multi-ring skips waiting to be piggybacked on the next Phase2
+	 */
+	private final AtomicLong skip = new AtomicLong(0);
+	
 	/**
 	 * @param ring
 	 */
 	public CoordinatorRole(RingManager ring) {
+		this(ring,false);
+	}
+
+	/**
+	 * @param ring
+	 * @param takeover true if the previous coordinator failed
+	 */
+	public CoordinatorRole(RingManager ring, boolean takeover) {
 		this.ring = ring;
+		shard = Math.max(0,ring.getCoordinatorShard());
+		shards = ring.getCoordinatorShards();
+		promises = new PromisePool(shards);
+		if(ring.getConfiguration().containsKey(ConfigKey.fast_takeover)){
+			fast_takeover = ring.getConfiguration().get(ConfigKey.fast_takeover).equals("1");
+			logger.info("Coordinator fast_takeover: " + (fast_takeover ? "enabled" : "disabled"));
+		}
+		this.takeover = takeover && fast_takeover && ring.getNetwork().getAcceptor() != null;
 		if(ring.getConfiguration().containsKey(ConfigKey.p1_preexecution_number)){
 			reserved = Integer.parseInt(ring.getConfiguration().get(ConfigKey.p1_preexecution_number));
 			logger.info("Coordinator p1_preexecution_number: " + reserved);
 		}
+		boolean adaptive = true;
+		if(ring.getConfiguration().containsKey(ConfigKey.p1_adaptive)){
+			adaptive = Integer.parseInt(ring.getConfiguration().get(ConfigKey.p1_adaptive)) == 1;
+			logger.info("Coordinator p1_adaptive: " + adaptive);
+		}
+		controller = new ReservationController(100,reserved,adaptive);
 		if(ring.getConfiguration().containsKey(ConfigKey.p1_resend_time)){
 			resend_time = Integer.parseInt(ring.getConfiguration().get(ConfigKey.p1_resend_time));
 			logger.info("Coordinator p1_resend_time: " + resend_time);
 		}
+		if(ring.getConfiguration().containsKey(ConfigKey.inflight_window)){
+			int w = Integer.parseInt(ring.getConfiguration().get(ConfigKey.inflight_window));
+			if(w > 0){
+				flow = new FlowControl(w);
+			}
+			logger.info("Coordinator inflight_window: " + w);
+		}
+		if(ring.getConfiguration().containsKey(ConfigKey.value_pack_size)){
+			pack_size = Integer.parseInt(ring.getConfiguration().get(ConfigKey.value_pack_size));
+			logger.info("Coordinator value_pack_size: " + pack_size);
+		}
+		if(ring.getConfiguration().containsKey(ConfigKey.value_pack_time)){
+			pack_time = Math.max(1,Integer.parseInt(ring.getConfiguration().get(ConfigKey.value_pack_time)));
+			logger.info("Coordinator value_pack_time: " + pack_time);
+		}
 		if(ring.getConfiguration().containsKey(ConfigKey.trim_modulo)){
 			trim_modulo = Integer.parseInt(ring.getConfiguration().get(ConfigKey.trim_modulo));
 			logger.info("Coordinator trim_modulo: " + trim_modulo);
 		}
+		if(ring.getConfiguration().containsKey(ConfigKey.trim_interval)){
+			trim_interval = Integer.parseInt(ring.getConfiguration().get(ConfigKey.trim_interval));
+			logger.info("Coordinator trim_interval: " + trim_interval);
+		}
 		if(ring.getConfiguration().containsKey(ConfigKey.trim_quorum)){
 			trim_quorum = Integer.parseInt(ring.getConfiguration().get(ConfigKey.trim_quorum));
 			logger.info("Coordinator trim_quorum: " + trim_quorum);
@@ -116,86 +214,92 @@ public class CoordinatorRole extends Role {
 	@Override
 	public void run() {
 		ring.getNetwork().registerCallback(this);
+		if(pack_size > 1){
+			Thread p = new Thread(new ValuePacker());
+			p.setName("ValuePacker");
+			p.start();
+		}
 		try { // wait until quorum is possible (ring is big enough)
-			while(ring.getAcceptors().size() < ring.getQuorum()){
-				Thread.sleep(1000);
+			// the votes of shard j are collected from position j to the last acceptor
+			while(ring.getAcceptors().size() < ring.getQuorum()+shard){
+				Thread.sleep(takeover ? 10 : 1000);
+			}
+			if(!takeover){
+				Thread.sleep(3000);
 			}
-			Thread.sleep(3000);
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();			
 		}
+		if(takeover){
+			recover();
+		}
 		
-		Thread t = new Thread(new InstanceSkipper(ring,this));
-		t.setName("InstanceSkipper");
-		t.start();
+		if(shards == 1){
+			Thread t = new Thread(new InstanceSkipper(ring,this));
+			t.setName("InstanceSkipper");
+			t.start();
+		}else{
+			logger.info("Coordinator shard " + shard + "/" + shards + " (no InstanceSkipper)");
+		}
 		
 		// send safe message to learner to recover last_trim_instance
-		Message recover = new Message(0,ring.getNodeID(),PaxosRole.Learner,MessageType.Safe,0,0,new Value("SAFE!",new byte[0]));
-		if(ring.getNetwork().getLearner() != null){
-			ring.getNetwork().getLearner().deliver(ring,recover);
-		}else{
-			ring.getNetwork().send(recover);
-		}	
+		if(shard == 0){ // the other shards don't trim
+			Message recover = new Message(0,ring.getNodeID(),PaxosRole.Learner,MessageType.Safe,0,0,null);
+			if(ring.getNetwork().getLearner() != null){
+				ring.getNetwork().getLearner().deliver(ring,recover);
+			}else{
+				ring.getNetwork().send(recover);
+			}
+		}
 
 		// phase 1 reserver loop
-		while(ring.isNodeCoordinator()){
+		while(isActive()){
 			try {
+				resendPhase1();
 				if(fastmode){ // Phase1Range
-					while(promises.size() < (reserved/2) && phase1range_in_transit.isEmpty()){
+					while(promises.size() < controller.getLowWatermark() && phase1range_in_transit.isEmpty()){
 						final int ballot = 10+ring.getNodeID();
-						Value v = new Value("",Util.intToByte(reserved));
-						Message m = new Message(instance.incrementAndGet(),ring.getNodeID(),PaxosRole.Acceptor,MessageType.Phase1Range,ballot,0,v);
-						instance.addAndGet(reserved-1);
-						phase1range_in_transit.put(m.getInstance(),new Promise(m.getInstance(),m.getBallot()));
+						range_in_transit = controller.getWindow();
+						Value v = new Value("",Util.intToByte(range_in_transit));
+						Message m = new Message(nextInstance(),ring.getNodeID(),PaxosRole.Acceptor,MessageType.Phase1Range,ballot,0,v);
+						instance.addAndGet((long)(range_in_transit-1)*shards);
+						final Promise p = new Promise(m.getInstance(),m.getBallot());
+						phase1range_in_transit.put(m.getInstance(),p);
+						timer.schedule(new Phase1RangeTimeout(p,range_in_transit),resend_time);
 						if(ring.getNetwork().getAcceptor() != null){
 							ring.getNetwork().getAcceptor().deliver(ring,m);
 						}else{ // else should never happen, since there is no coordinator without acceptor!
 							ring.getNetwork().send(m);
 						}
 					}
-					long time = System.currentTimeMillis();
-					for(Entry<Long, Promise> e : phase1range_in_transit.entrySet()){
-						if(time-e.getValue().getDate()>resend_time){
-							instance.addAndGet(-reserved);
-							fastmode = false;
-							logger.error("Coordinator timeout in phase1range reservation for instance: " + e.getKey());
-							logger.debug("Coordinator switch to standard reservation.");
-						}
-					}
 				}else{ // Phase1
-					while(promises.size() < (reserved/2) && phase1_in_transit.size() < reserved){
+					while(promises.size() < controller.getLowWatermark() && phase1_in_transit.size() < controller.getWindow()){
 						final int ballot = 10+ring.getNodeID();
-						for(int i=0;i<reserved;i++){
-							Message m = new Message(instance.incrementAndGet(),ring.getNodeID(),PaxosRole.Acceptor,MessageType.Phase1,ballot,0,null);
-							phase1_in_transit.put(m.getInstance(),new Promise(m.getInstance(),m.getBallot()));
-							if(ring.getNetwork().getAcceptor() != null){
-								ring.getNetwork().getAcceptor().deliver(ring,m);
-							}else{ // else should never happen, since there is no coordinator without acceptor!
-								ring.getNetwork().send(m);
-							}
+						final int window = controller.getWindow();
+						for(int i=0;i<window;i++){
+							phase1(nextInstance(),ballot);
 						}
 					}
-					long time = System.currentTimeMillis();
-					for(Entry<Long, Promise> e : phase1_in_transit.entrySet()){
-						if(time-e.getValue().getDate()>resend_time){ 
-							Message m = new Message(e.getKey(),ring.getNodeID(),PaxosRole.Acceptor,MessageType.Phase1,e.getValue().getBallot()+10,0,null);
-							phase1_in_transit.put(m.getInstance(),new Promise(m.getInstance(),m.getBallot()));
-							if(ring.getNetwork().getAcceptor() != null){
-								ring.getNetwork().getAcceptor().deliver(ring,m);
-							}else{ // else should never happen, since there is no coordinator without acceptor!
-								ring.getNetwork().send(m);
-							}
-							logger.error("Coordinator timeout in phase1 reservation for instance: " + e.getKey());
-						}
+				}
+				if(flow != null && flow.expire(resend_time) > 0){
+					logger.warn("Coordinator Phase2 timeout; " + flow);
+					synchronized(this){
+						assignPending();
 					}
 				}
-				Thread.sleep(20);
+				if(shard == 0){
+					trim();
+				}
+				controller.sampleRate(promises.getClaimed());
+				controller.await(100); // woken up if the reserved instances run low
 			} catch (InterruptedException e) {
 				Thread.currentThread().interrupt();
 				break;				
 			}
 		}
-		ring.getNetwork().setLeader(null);
+		if(ring.getNetwork().getLeader() == this){ // not replaced by the coordinator of an other shard
+			ring.getNetwork().setLeader(null);
+		}
 		logger.debug("Coordinator stopped!");
 	}
 
@@ -204,13 +308,16 @@ public class CoordinatorRole extends Role {
 			logger.debug("coordinator " + ring.getNodeID() + " received " + m);
 		}*/
 		if(m.getType() == MessageType.Relearn){
-			Message n = new Message(m.getInstance(),m.getSender(),PaxosRole.Acceptor,MessageType.Phase2,new Integer(9999),0,new Value(Value.getSkipID(),Long.toString(1).getBytes()));
+			Message n = new Message(m.getInstance(),m.getSender(),PaxosRole.Acceptor,MessageType.Phase2,new Integer(9999),0,Value.skip(Value.getSkipID(),1));
 			if(ring.getNetwork().getAcceptor() != null){
 				ring.getNetwork().getAcceptor().deliver(ring,n);
 			}else{ // else should never happen, since there is no coordinator without acceptor!
 				ring.getNetwork().send(n);
 			}
 		}else if(m.getType() == MessageType.Value){
+			if(shards > 1 && m.getSender() % shards != shard){ // proposed by an other coordinator
+				return;
+			}
 			if(m.getValue().isBatch()){ // not so nice; but the instance skipper needs the exact amount of values
 				ByteBuffer buffer = ByteBuffer.wrap(m.getValue().getValue());
 				while(buffer.remaining() > 0){
@@ -224,34 +331,21 @@ public class CoordinatorRole extends Role {
 			}else{
 				value_count.incrementAndGet();
 			}
-			Promise p = null;
-			try {
-				p = promises.poll(1,TimeUnit.SECONDS); // wait for a promise
-			} catch (InterruptedException e) {
-			}
-			if(p != null){
-				long instance = p.getInstance();
-				PaxosRole rcv = PaxosRole.Acceptor;
-				Message n = new Message(instance,m.getSender(),rcv,MessageType.Phase2,p.getBallot(),0,new Value(m.getValue().getID(),new byte[0]));
-				if(ring.getNetwork().getAcceptor() != null){
-					ring.getNetwork().getAcceptor().deliver(ring,n);
-				}else{ // else should never happen, since there is no coordinator without acceptor!
-					ring.getNetwork().send(n);
+			if(pack_size > 1){
+				pack.add(m.getValue().getID());
+				if(pack.size() == 1){
+					pack_date = System.currentTimeMillis();
 				}
-			}
-			// send safe message to trim acceptor log after n instances
-			if(trim_modulo > 0 && value_count.get() % trim_modulo == 0){
-				Message n = new Message(0,m.getSender(),PaxosRole.Learner,MessageType.Safe,0,0,new Value("SAFE!",new byte[0]));
-				if(ring.getNetwork().getLearner() != null){
-					ring.getNetwork().getLearner().deliver(ring,n);
-				}else{
-					ring.getNetwork().send(n);
-				}	
+				if(pack.size() >= pack_size){
+					flushPack();
+				}
+			}else{
+				propose(m);
 			}
 		}else if(m.getType() == MessageType.Safe){
-			String s = new String(m.getValue().getValue());
-			logger.debug("Coordinator received safe response from learners: " + s);
-			Message n = new Message(getTrimInstance(s),m.getSender(),PaxosRole.Acceptor,MessageType.Trim,0,0,null);
+			safe_date = 0;
+			logger.debug("Coordinator received safe instance " + m.getInstance() + " from " + m.getVoteCount() + " learners");
+			Message n = new Message(getTrimInstance(m),m.getSender(),PaxosRole.Acceptor,MessageType.Trim,0,0,null);
 			if(ring.getNetwork().getAcceptor() != null){
 				ring.getNetwork().getAcceptor().deliver(ring,n);
 			}else{
@@ -277,12 +371,12 @@ public class CoordinatorRole extends Role {
 					ring.getNetwork().send(n);
 				}
 			}else if(m.getVoteCount() >= ring.getQuorum()){
-				Promise p = new Promise(m.getInstance(),m.getBallot());
-				promises.add(p);
+				promises.add(m.getInstance(),m.getInstance()+shards,m.getBallot());
 				if(logger.isDebugEnabled()){
 					logger.debug("Coordinator reserved instance " + m.getInstance() + " (Phase1)");
 				}
 				phase1_in_transit.remove(m.getInstance());
+				assignPending();
 				successful_promise_count++;
 				if(successful_promise_count>=enable_fastmode_threashold){
 					successful_promise_count = 0;
@@ -294,48 +388,346 @@ public class CoordinatorRole extends Role {
 			}
 		}else if(m.getType() == MessageType.Phase1Range && m.getSender() == ring.getNodeID()){
 			if(m.getVoteCount() >= ring.getQuorum()){
-				int n = Util.byteToInt(m.getValue().getValue());
-				for(long i=m.getInstance();i<n+m.getInstance();i++){
-					Promise p = new Promise(i,m.getBallot());
-					promises.add(p);
+				Promise r = phase1range_in_transit.remove(m.getInstance());
+				if(r == null){ // timed out; the instances are reserved again by Phase1
+					logger.warn("Coordinator ignored late Phase1Range for instance " + m.getInstance());
+					return;
 				}
+				controller.sampleRTT(System.currentTimeMillis()-r.getDate());
+				int n = Util.byteToInt(m.getValue().getValue());
+				promises.add(m.getInstance(),m.getInstance()+(long)n*shards,m.getBallot());
 				if(logger.isDebugEnabled()){
-					logger.debug("Coordinator reserved instance " + m.getInstance() + "-" + (m.getInstance()+reserved-1) + " (Phase1Range)");
+					logger.debug("Coordinator reserved instance " + m.getInstance() + "-" + (m.getInstance()+(long)(n-1)*shards) + " (Phase1Range)");
+					logger.debug("Coordinator " + controller);
 				}
-				phase1range_in_transit.remove(m.getInstance());
+				assignPending();
 			}else{
 				logger.error(m +" at ring end without quorum! (" + m.getVoteCount() + ")");
 			}
 		}else if(m.getType() == MessageType.Decision){
-			if(m.getInstance()>instance.get()){
+			if(shards > 1 && m.getInstance() % shards != shard){
+				fill(m.getInstance());
+			}else if(m.getInstance()>instance.get()){
 				instance.set(m.getInstance());
 			}
+			if(flow != null && flow.decided(m.getInstance())){
+				assignPending();
+			}
 		}
 	}
 	
-	private long getTrimInstance(String s) {
-		long min = Long.MAX_VALUE;
-		int q = 0;
-		for(String is : s.split(";")){
+	/**
+	 * @return true while this node coordinates the shard
+	 */
+	private boolean isActive(){
+		return shards == 1 ? ring.isNodeCoordinator() : ring.getCoordinatorShard() == shard;
+	}
+
+	/**
+	 * @return the next instance of this shard after the reserved ones
+	 */
+	private long nextInstance(){
+		while(true){
+			long i = instance.get();
+			long n = i+1;
+			n = n + (shard - n % shards + shards) % shards;
+			if(instance.compareAndSet(i,n)){
+				return n;
+			}
+		}
+	}
+
+	/**
+	 * Decide the reserved instances of this shard below an instance
+	 * decided by an other shard with an empty skip; the learners deliver
+	 * in instance order and would wait for them otherwise. The learners
+	 * drop these fill values (Value.isFill()).
+	 * 
+	 * @param decided an instance of an other shard
+	 */
+	private void fill(long decided){
+		if(!pending.isEmpty()){
+			return;
+		}
+		Promise p;
+		while((flow == null || flow.admit()) && (p = promises.claim(decided)) != null){
+			Message n = new Message(p.getInstance(),ring.getNodeID(),PaxosRole.Acceptor,MessageType.Phase2,p.getBallot(),0,Value.skip(Value.getFillID(),0));
+			if(ring.getNetwork().getAcceptor() != null){
+				ring.getNetwork().getAcceptor().deliver(ring,n);
+			}else{ // else should never happen, since there is no coordinator without acceptor!
+				ring.getNetwork().send(n);
+			}
+		}
+		if(promises.size() < controller.getLowWatermark()){
+			controller.signal();
+		}
+	}
+
+	/**
+	 * Send a Phase1 and schedule its resend
+	 * 
+	 * @param i instance
+	 * @param ballot
+	 */
+	private void phase1(long i,int ballot){
+		Promise p = new Promise(i,ballot);
+		phase1_in_transit.put(i,p);
+		timer.schedule(new Phase1Timeout(p),resend_time);
+		Message m = new Message(i,ring.getNodeID(),PaxosRole.Acceptor,MessageType.Phase1,ballot,0,null);
+		if(ring.getNetwork().getAcceptor() != null){
+			ring.getNetwork().getAcceptor().deliver(ring,m);
+		}else{ // else should never happen, since there is no coordinator without acceptor!
+			ring.getNetwork().send(m);
+		}
+	}
+
+	/**
+	 * Runs on the shared TimerWheel thread; hands the resend to the
+	 * reserver loop (the local acceptor may write the storage)
+	 */
+	private class Phase1Timeout implements Runnable {
+
+		private final Promise p;
+
+		public Phase1Timeout(Promise p){
+			this.p = p;
+		}
+
+		@Override
+		public void run() {
+			if(isActive() && phase1_in_transit.get(p.getInstance()) == p){ // not answered and not resent
+				phase1_timeout.add(p);
+				controller.signal();
+			}
+		}
+	}
+
+	private class Phase1RangeTimeout implements Runnable {
+
+		private final Promise p;
+
+		private final int range;
+
+		public Phase1RangeTimeout(Promise p,int range){
+			this.p = p;
+			this.range = range;
+		}
+
+		@Override
+		public void run() {
+			if(phase1range_in_transit.remove(p.getInstance(),p)){
+				instance.addAndGet(-(long)range*shards);
+				fastmode = false;
+				logger.error("Coordinator timeout in phase1range reservation for instance: " + p.getInstance());
+				logger.debug("Coordinator switch to standard reservation.");
+				controller.signal();
+			}
+		}
+	}
+
+	/**
+	 * Continue after the instances the local acceptor has seen
+	 * and re-run Phase1 for the reserved but not decided ones
+	 * (decided values are proposed again; the others are reserved)
+	 * from the highest decided instance of the shard on; at most
+	 * a window of Phase1 is in transit.
+	 */
+	private void recover(){
+		AcceptorRole acceptor = (AcceptorRole)ring.getNetwork().getAcceptor();
+		long to = acceptor.getHighestSeenInstance(shard);
+		long from = acceptor.getHighestDecidedInstance(shard)+1;
+		from = from + (shard - from % shards + shards) % shards; // first instance of the shard
+		if(to > instance.get()){
+			instance.set(to);
+		}
+		final int ballot = 10+ring.getNodeID();
+		int n = 0;
+		for(long i=from;i<=to && isActive();i=i+shards){
 			try {
-				long i = 0;
-				if(!is.isEmpty()){
-					i = Long.valueOf(is);
+				while(phase1_in_transit.size() >= controller.getWindow() && isActive()){
+					resendPhase1();
+					controller.await(10);
 				}
-				q++;
-				if(i == 0) { return last_trimmed_instance; } // notify recovering learner what is online
-				if(i<min){
-					min = i;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			phase1(i,ballot);
+			n++;
+		}
+		logger.info("Coordinator takeover at instance " + to + " (recover " + n + " instances from " + from + ")");
+	}
+
+	/**
+	 * Resend the timed out Phase1 (by the coordinator thread)
+	 */
+	private void resendPhase1(){
+		Promise t;
+		while((t = phase1_timeout.poll()) != null){
+			if(phase1_in_transit.get(t.getInstance()) == t){ // not answered in the meantime
+				logger.error("Coordinator timeout in phase1 reservation for instance: " + t.getInstance());
+				phase1(t.getInstance(),t.getBallot()+10);
+			}
+		}
+	}
+
+	private void propose(Message m){
+		Promise p = null;
+		if(pending.isEmpty() && (flow == null || flow.admit())){
+			p = promises.claim();
+		}
+		if(p != null){
+			phase2(m,p);
+		}else{
+			pending.add(m); // assigned when the next reservation arrives
+			assignPending();
+		}
+		if(promises.size() < controller.getLowWatermark()){
+			controller.signal();
+		}
+	}
+
+	/**
+	 * Propose the packed values in one instance
+	 */
+	private synchronized void flushPack(){
+		if(pack.isEmpty()){
+			return;
+		}
+		Value v;
+		if(pack.size() == 1){
+			v = new Value(pack.get(0),new byte[0]);
+		}else{
+			v = ValuePack.create(Value.getPackID(),new ArrayList<String>(pack));
+			if(logger.isDebugEnabled()){
+				logger.debug("Coordinator packed " + pack.size() + " values in " + v.getID());
+			}
+		}
+		pack.clear();
+		propose(new Message(0,ring.getNodeID(),PaxosRole.Leader,MessageType.Value,0,0,v));
+	}
+
+	private void phase2(Message m,Promise p){
+		Value v = m.getValue().isPack() ? m.getValue() : new Value(m.getValue().getID(),new byte[0]); // a pack carries the value IDs
+		long s = skip.getAndSet(0);
+		if(s > 0){
+			v = v.withSkip(s);
+		}
+		Message n = new Message(p.getInstance(),m.getSender(),PaxosRole.Acceptor,MessageType.Phase2,p.getBallot(),0,v);
+		if(flow != null){
+			flow.sent(p.getInstance());
+		}
+		if(ring.getNetwork().getAcceptor() != null){
+			ring.getNetwork().getAcceptor().deliver(ring,n);
+		}else{ // else should never happen, since there is no coordinator without acceptor!
+			ring.getNetwork().send(n);
+		}
+	}
+
+	/**
+	 * Assign queued values to reserved instances (in arrival order)
+	 */
+	private void assignPending(){
+		while(!pending.isEmpty() && promises.size() > 0 && (flow == null || flow.admit())){
+			Message m = pending.poll();
+			if(m == null){
+				break;
+			}
+			Promise p = promises.claim();
+			if(p != null){
+				phase2(m,p);
+			}else{
+				pending.offerFirst(m);
+			}
+		}
+	}
+
+	private class ValuePacker implements Runnable {
+
+		@Override
+		public void run() {
+			while(isActive()){
+				try {
+					Thread.sleep(pack_time);
+					synchronized(CoordinatorRole.this){
+						if(!pack.isEmpty() && System.currentTimeMillis()-pack_date >= pack_time){
+							flushPack();
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
 				}
-			} catch (NumberFormatException e) {
-				logger.error("Error in getTrimInstance()!",e);
-				return last_trimmed_instance;
 			}
 		}
-		return q >= trim_quorum ? min : last_trimmed_instance;
 	}
 
-	public TransferQueue<Promise> getPromiseQueue(){
+	/**
+	 * Ask the learners for their safe instance (every trim_modulo
+	 * instances or trim_interval ms; one Safe at a time)
+	 */
+	private void trim(){
+		long time = System.currentTimeMillis();
+		if(safe_date > 0 && time-safe_date < resend_time){
+			return;
+		}
+		long i = instance.get();
+		if((trim_modulo > 0 && i-trim_instance >= trim_modulo) || (trim_interval > 0 && time-trim_date >= trim_interval)){
+			trim_instance = i;
+			trim_date = time;
+			safe_date = time;
+			Message n = new Message(0,ring.getNodeID(),PaxosRole.Learner,MessageType.Safe,0,0,null);
+			if(ring.getNetwork().getLearner() != null){
+				ring.getNetwork().getLearner().deliver(ring,n);
+			}else{
+				ring.getNetwork().send(n);
+			}
+		}
+	}
+
+	/**
+	 * @param m a Safe message (instance: min. safe instance; vote count: learners)
+	 * @return the instance to trim
+	 */
+	private long getTrimInstance(Message m) {
+		if(m.getInstance() == 0){ // notify recovering learner what is online
+			return last_trimmed_instance;
+		}
+		return m.getVoteCount() >= trim_quorum ? m.getInstance() : last_trimmed_instance;
+	}
+
+	/**
+	 * @param n skipped values to piggyback on the next Phase2
+	 */
+	public void addSkip(long n){
+		skip.addAndGet(n);
+	}
+
+	/**
+	 * @return the skipped values which were not piggybacked (reset to 0)
+	 */
+	public long takeSkip(){
+		return skip.getAndSet(0);
+	}
+
+	/**
+	 * @return the reserved instances
+	 */
+	public PromisePool getPromises(){
 		return promises;
 	}
+
+	/**
+	 * @return the Phase2 flow control (or null)
+	 */
+	public FlowControl getFlowControl(){
+		return flow;
+	}
+
+	/**
+	 * @return number of values waiting for a reserved instance or the flow control
+	 */
+	public int getPendingCount(){
+		return pending.size();
+	}
 }
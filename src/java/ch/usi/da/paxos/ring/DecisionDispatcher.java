@@ -0,0 +1,90 @@
+package ch.usi.da.paxos.ring;
+/*
+ * Copyright (c) 2015 Università della Svizzera italiana (USI)
+ *
+ * This file is part of URingPaxos.
+ *
+ * URingPaxos is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * URingPaxos is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import ch.usi.da.paxos.api.DecisionHandler;
+import ch.usi.da.paxos.storage.Decision;
+
+/**
+ * Name: DecisionDispatcher<br>
+ * Description: <br>
+ *
+ * Thread which drains a DecisionQueue in batches into a DecisionHandler.
+ *
+ * Creation date: Oct 31, 2015<br>
+ * $Id$
+ *
+ * @author Samuel Benz benz@geoid.ch
+ */
+public class DecisionDispatcher implements Runnable {
+
+	private final static Logger logger = Logger.getLogger(DecisionDispatcher.class);
+
+	private final DecisionQueue queue;
+
+	private final DecisionHandler handler;
+
+	private final Decision[] batch;
+
+	private volatile boolean stop = false;
+
+	/**
+	 * @param queue
+	 * @param handler
+	 * @param size max. decisions per call of the handler
+	 */
+	public DecisionDispatcher(DecisionQueue queue,DecisionHandler handler,int size){
+		this.queue = queue;
+		this.handler = handler;
+		this.batch = new Decision[size];
+	}
+
+	@Override
+	public void run() {
+		while(!stop){
+			try {
+				int n = queue.drain(batch,100,TimeUnit.MILLISECONDS);
+				if(n > 0){
+					try {
+						handler.deliver(batch,n);
+					} catch (RuntimeException e) {
+						logger.error("DecisionHandler failed",e);
+					}
+					Arrays.fill(batch,0,n,null);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+	}
+
+	/**
+	 * the dispatcher returns after the current batch
+	 */
+	public void stop(){
+		stop = true;
+	}
+
+}
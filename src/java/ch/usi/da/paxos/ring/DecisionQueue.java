@@ -0,0 +1,439 @@
+package ch.usi.da.paxos.ring;
+/*
+ * Copyright (c) 2015 Università della Svizzera italiana (USI)
+ *
+ * This file is part of URingPaxos.
+ *
+ * URingPaxos is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * URingPaxos is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import ch.usi.da.paxos.api.DecisionHandler;
+import ch.usi.da.paxos.storage.Decision;
+
+/**
+ * Name: DecisionQueue<br>
+ * Description: <br>
+ *
+ * Delivery queue between a learner and the application: a bounded ring
+ * buffer with one producer and one consumer, without locks.
+ *
+ * The producer (the caller serializes the producing threads) publishes a
+ * decision with an ordered write of the tail and unparks the consumer if
+ * it sleeps; if the buffer is full it waits (back pressure). The
+ * producing threads are: in LearnerRole the thread which holds the
+ * learner lock in deliver() (network thread, acceptor stripe or catch-up
+ * client) or the LearnerUnpacker, never both at once; in MultiLearnerRole
+ * and ElasticLearnerRole the merge thread. The consumer (one thread at a
+ * time: the application, a DecisionDispatcher or, with a direct handler,
+ * the producer) releases the slots with an ordered write of the head;
+ * drain() moves all available decisions into the caller's array. An empty
+ * queue is polled spin times before the consumer parks.
+ *
+ * With a direct DecisionHandler the producer passes the decisions to the
+ * handler instead of the buffer; under the handler lock it first passes
+ * the decisions still queued (setHandler() does the same when it sets
+ * the handler), so the handler gets them in order. Otherwise a
+ * DecisionDispatcher thread drains the buffer into the handler.
+ *
+ * Creation date: Oct 29, 2015<br>
+ * $Id$
+ *
+ * @author Samuel Benz benz@geoid.ch
+ */
+public class DecisionQueue extends AbstractQueue<Decision> implements BlockingQueue<Decision> {
+
+	private final static Logger logger = Logger.getLogger(DecisionQueue.class);
+
+	private final Decision[] buffer;
+
+	private final int mask;
+
+	private final int spin;
+
+	private final AtomicLong head = new AtomicLong(0); // next to take
+
+	private final AtomicLong tail = new AtomicLong(0); // next to put
+
+	private volatile Thread waiting = null; // the parked consumer
+
+	private volatile DecisionSignal signal = null;
+
+	private volatile DecisionHandler handler = null; // direct
+
+	private final ReentrantLock handler_lock = new ReentrantLock(); // held while a direct handler is called
+
+	private final Decision[] direct = new Decision[1]; // guarded by handler_lock
+
+	private DecisionDispatcher dispatcher = null;
+
+	private Thread dispatcher_thread = null;
+
+	public DecisionQueue(){
+		this(262144,100);
+	}
+
+	/**
+	 * @param capacity (rounded up to a power of two)
+	 * @param spin polls of an empty queue before a consumer sleeps
+	 */
+	public DecisionQueue(int capacity, int spin){
+		int n = 2;
+		while(n < capacity && n < (1 << 30)){
+			n = n << 1;
+		}
+		buffer = new Decision[n];
+		mask = n-1;
+		this.spin = spin;
+	}
+
+	@Override
+	public boolean offer(Decision d){
+		if(d == null){
+			throw new NullPointerException();
+		}
+		if(handler != null && deliver(d)){
+			return true;
+		}
+		long t = tail.get();
+		if(t-head.get() >= buffer.length){
+			return false;
+		}
+		buffer[(int)(t & mask)] = d;
+		tail.set(t+1); // volatile: ordered before the read of waiting and handler
+		if(handler != null){ // set concurrently; setHandler() may not have seen the decision
+			flush();
+		}
+		Thread w = waiting;
+		if(w != null){
+			LockSupport.unpark(w);
+		}
+		DecisionSignal s = signal;
+		if(s != null){
+			s.signal();
+		}
+		return true;
+	}
+
+	/**
+	 * @param d
+	 * @return false if there is no direct handler (any more)
+	 */
+	private boolean deliver(Decision d){
+		handler_lock.lock();
+		try {
+			DecisionHandler h = handler;
+			if(h == null){
+				return false;
+			}
+			flush(h); // queued before: keep the order
+			direct[0] = d;
+			h.deliver(direct,1);
+		} catch (RuntimeException e) {
+			logger.error("DecisionHandler failed",e);
+		} finally {
+			direct[0] = null;
+			handler_lock.unlock();
+		}
+		return true;
+	}
+
+	/**
+	 * Move the queued decisions to the direct handler (if any)
+	 */
+	private void flush(){
+		handler_lock.lock();
+		try {
+			DecisionHandler h = handler;
+			if(h != null){
+				flush(h);
+			}
+		} finally {
+			handler_lock.unlock();
+		}
+	}
+
+	/**
+	 * Move the queued decisions to the handler (the caller holds the handler lock)
+	 *
+	 * @param h
+	 */
+	private void flush(DecisionHandler h){
+		if(isEmpty()){
+			return;
+		}
+		Decision[] b = new Decision[Math.min(size(),1024)];
+		int n;
+		while((n = poll(b)) > 0){
+			try {
+				h.deliver(b,n);
+			} catch (RuntimeException e) {
+				logger.error("DecisionHandler failed",e);
+			}
+			Arrays.fill(b,0,n,null);
+		}
+	}
+
+	/**
+	 * Push the decisions to a handler instead of the consumers
+	 *
+	 * @param h the handler (null: the consumers take the decisions again)
+	 * @param direct true: called by the producer; false: by a dispatcher thread in batches
+	 * (the decisions queued before are passed to a direct handler here)
+	 */
+	public synchronized void setHandler(DecisionHandler h, boolean direct){
+		if(dispatcher != null){
+			dispatcher.stop();
+			if(Thread.currentThread() != dispatcher_thread){
+				try {
+					dispatcher_thread.join(); // keep the order
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			dispatcher = null;
+			dispatcher_thread = null;
+		}
+		handler_lock.lock();
+		try { // after a running direct call
+			handler = h != null && direct ? h : null;
+			if(handler != null){
+				flush(handler); // queued before the handler was set
+			}
+		} finally {
+			handler_lock.unlock();
+		}
+		if(h != null && !direct){
+			dispatcher = new DecisionDispatcher(this,h,1024);
+			dispatcher_thread = new Thread(dispatcher);
+			dispatcher_thread.setName("DecisionDispatcher");
+			dispatcher_thread.start();
+		}
+	}
+
+	/**
+	 * @param signal signaled after every offered decision (null: none)
+	 */
+	public void setSignal(DecisionSignal signal){
+		this.signal = signal;
+	}
+
+	@Override
+	public void put(Decision d) throws InterruptedException {
+		while(!offer(d)){
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+			LockSupport.parkNanos(100000);
+		}
+	}
+
+	/**
+	 * Put the decisions [0,count) as one unit: a direct handler gets them
+	 * in one call
+	 *
+	 * @param decisions
+	 * @param count
+	 * @throws InterruptedException
+	 */
+	public void putAll(Decision[] decisions, int count) throws InterruptedException {
+		if(handler != null){
+			handler_lock.lock();
+			try {
+				DecisionHandler h = handler;
+				if(h != null){
+					try {
+						flush(h); // queued before: keep the order
+						h.deliver(decisions,count);
+					} catch (RuntimeException e) {
+						logger.error("DecisionHandler failed",e);
+					}
+					return;
+				}
+			} finally {
+				handler_lock.unlock();
+			}
+		}
+		for(int i=0;i<count;i++){
+			put(decisions[i]);
+		}
+	}
+
+	@Override
+	public boolean offer(Decision d, long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while(!offer(d)){
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+			if(System.nanoTime() >= deadline){
+				return false;
+			}
+			LockSupport.parkNanos(100000);
+		}
+		return true;
+	}
+
+	/**
+	 * Move the available decisions into the array; wait if there is none
+	 *
+	 * @param decisions the destination
+	 * @param timeout
+	 * @param unit
+	 * @return the number of decisions (0: timeout)
+	 * @throws InterruptedException
+	 */
+	public int drain(Decision[] decisions, long timeout, TimeUnit unit) throws InterruptedException {
+		for(int i=0;i<spin && isEmpty();i++){
+			Thread.yield();
+		}
+		if(Thread.interrupted()){
+			throw new InterruptedException();
+		}
+		if(isEmpty()){
+			long nanos = unit.toNanos(timeout);
+			waiting = Thread.currentThread();
+			try {
+				while(isEmpty()){ // the producer unparks after its write of the tail
+					if(nanos <= 0){
+						return 0;
+					}
+					long t = System.nanoTime();
+					LockSupport.parkNanos(this,nanos);
+					if(Thread.interrupted()){
+						throw new InterruptedException();
+					}
+					nanos = nanos - (System.nanoTime()-t);
+				}
+			} finally {
+				waiting = null;
+			}
+		}
+		return move(decisions,decisions.length);
+	}
+
+	/**
+	 * @param decisions the destination
+	 * @param max
+	 * @return the number of moved decisions
+	 */
+	private int move(Decision[] decisions, int max){
+		long h = head.get();
+		int n = (int)Math.min(max,tail.get()-h);
+		for(int i=0;i<n;i++){
+			int s = (int)((h+i) & mask);
+			decisions[i] = buffer[s];
+			buffer[s] = null;
+		}
+		head.lazySet(h+n);
+		return n;
+	}
+
+	/**
+	 * Move the available decisions into the array (does not wait)
+	 *
+	 * @param decisions the destination
+	 * @return the number of decisions
+	 */
+	public int poll(Decision[] decisions){
+		return move(decisions,decisions.length);
+	}
+
+	@Override
+	public Decision take() throws InterruptedException {
+		Decision[] d = new Decision[1];
+		while(drain(d,Long.MAX_VALUE,TimeUnit.NANOSECONDS) == 0);
+		return d[0];
+	}
+
+	@Override
+	public Decision poll(long timeout, TimeUnit unit) throws InterruptedException {
+		Decision[] d = new Decision[1];
+		return drain(d,timeout,unit) > 0 ? d[0] : null;
+	}
+
+	@Override
+	public Decision poll(){
+		Decision[] d = new Decision[1];
+		return move(d,1) > 0 ? d[0] : null;
+	}
+
+	@Override
+	public Decision peek(){
+		long h = head.get();
+		return h == tail.get() ? null : buffer[(int)(h & mask)];
+	}
+
+	@Override
+	public int drainTo(Collection<? super Decision> c){
+		return drainTo(c,Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection<? super Decision> c, int max){
+		Decision[] d = new Decision[(int)Math.min(max,Math.max(0,size()))];
+		int n = move(d,d.length);
+		for(int i=0;i<n;i++){
+			c.add(d[i]);
+		}
+		return n;
+	}
+
+	@Override
+	public int remainingCapacity(){
+		return buffer.length-size();
+	}
+
+	@Override
+	public int size(){
+		return (int)(tail.get()-head.get());
+	}
+
+	@Override
+	public boolean isEmpty(){
+		return tail.get() == head.get();
+	}
+
+	/**
+	 * Weakly consistent (a copy of the queued decisions; without those
+	 * taken by the consumer meanwhile)
+	 */
+	@Override
+	public Iterator<Decision> iterator(){
+		List<Decision> l = new ArrayList<Decision>();
+		long t = tail.get();
+		for(long i=head.get();i<t;i++){
+			Decision d = buffer[(int)(i & mask)];
+			if(d != null){
+				l.add(d);
+			}
+		}
+		return Collections.unmodifiableList(l).iterator();
+	}
+
+}
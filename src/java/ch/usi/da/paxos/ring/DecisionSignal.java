@@ -0,0 +1,76 @@
+package ch.usi.da.paxos.ring;
+/*
+ * Copyright (c) 2015 Università della Svizzera italiana (USI)
+ *
+ * This file is part of URingPaxos.
+ *
+ * URingPaxos is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * URingPaxos is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Name: DecisionSignal<br>
+ * Description: <br>
+ *
+ * Wakes one consumer of several DecisionQueues: the queues signal after
+ * every offer, the consumer calls prepare(), checks all queues again
+ * and then await().
+ *
+ * Creation date: Oct 30, 2015<br>
+ * $Id$
+ *
+ * @author Samuel Benz benz@geoid.ch
+ */
+public class DecisionSignal {
+
+	private volatile Thread waiter = null;
+
+	/**
+	 * called by the producers (after the decision is published)
+	 */
+	public void signal(){
+		Thread t = waiter;
+		if(t != null){
+			LockSupport.unpark(t);
+		}
+	}
+
+	/**
+	 * announce the wait (before the last check of the queues)
+	 */
+	public void prepare(){
+		waiter = Thread.currentThread();
+	}
+
+	/**
+	 * the last check found a decision
+	 */
+	public void cancel(){
+		waiter = null;
+	}
+
+	/**
+	 * @param nanos
+	 * @throws InterruptedException
+	 */
+	public void await(long nanos) throws InterruptedException {
+		LockSupport.parkNanos(this,nanos);
+		waiter = null;
+		if(Thread.interrupted()){
+			throw new InterruptedException();
+		}
+	}
+
+}
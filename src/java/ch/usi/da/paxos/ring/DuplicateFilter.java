@@ -0,0 +1,153 @@
+package ch.usi.da.paxos.ring;
+/*
+ * Copyright (c) 2015 Università della Svizzera italiana (USI)
+ *
+ * This file is part of URingPaxos.
+ *
+ * URingPaxos is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * URingPaxos is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Name: DuplicateFilter<br>
+ * Description: <br>
+ *
+ * At most once delivery for the most recent value IDs with a fixed
+ * memory budget.
+ *
+ * The 64-bit hashes of the IDs are kept in two open addressing tables
+ * (linear probing, at most half full). If the current table is full,
+ * the older one is cleared and becomes the current one; the filter
+ * remembers between slots/2 and slots IDs.
+ *
+ * Two different IDs with the same 64-bit hash are a false duplicate.
+ *
+ * Not thread-safe.
+ *
+ * Creation date: Oct 27, 2015<br>
+ * $Id$
+ *
+ * @author Samuel Benz benz@geoid.ch
+ */
+public class DuplicateFilter {
+
+	private final int mask;
+
+	private long[] current;
+
+	private long[] old;
+
+	private int count = 0;
+
+	private int old_count = 0;
+
+	private long rotations = 0;
+
+	/**
+	 * @param memory bytes used by the two tables
+	 */
+	public DuplicateFilter(long memory){
+		int slots = 64;
+		while((long)slots*2*8 <= memory/2 && slots < (1 << 29)){
+			slots = slots << 1;
+		}
+		mask = slots-1;
+		current = new long[slots];
+		old = new long[slots];
+	}
+
+	/**
+	 * @param ID a value ID
+	 * @return true if the ID was not seen before (and is now remembered)
+	 */
+	public boolean add(String ID){
+		long h = hash(ID);
+		if(contains(current,h) || contains(old,h)){
+			return false;
+		}
+		if(count >= current.length/2){
+			long[] t = old;
+			Arrays.fill(t,0);
+			old = current;
+			old_count = count;
+			current = t;
+			count = 0;
+			rotations++;
+		}
+		int i = (int)(h ^ (h >>> 32)) & mask;
+		while(current[i] != 0){
+			i = (i+1) & mask;
+		}
+		current[i] = h;
+		count++;
+		return true;
+	}
+
+	/**
+	 * @param ID a value ID
+	 * @return true if the ID was seen
+	 */
+	public boolean contains(String ID){
+		long h = hash(ID);
+		return contains(current,h) || contains(old,h);
+	}
+
+	private boolean contains(long[] table,long h){
+		int i = (int)(h ^ (h >>> 32)) & mask;
+		long e;
+		while((e = table[i]) != 0){
+			if(e == h){
+				return true;
+			}
+			i = (i+1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * FNV-1a over the characters (0 is the empty slot)
+	 *
+	 * @param ID
+	 * @return the 64-bit hash
+	 */
+	public static long hash(String ID){
+		long h = 0xcbf29ce484222325L;
+		for(int i=0;i<ID.length();i++){
+			h = h ^ ID.charAt(i);
+			h = h * 0x100000001b3L;
+		}
+		h = h ^ (h >>> 29); // spread the low bits used for the slot
+		return h == 0 ? 1 : h;
+	}
+
+	/**
+	 * @return the number of remembered IDs
+	 */
+	public int size(){
+		return count + old_count;
+	}
+
+	/**
+	 * @return the bytes used by the tables
+	 */
+	public long getMemory(){
+		return (long)(current.length + old.length)*8;
+	}
+
+	public String toString(){
+		return "DuplicateFilter(ids:" + size() + " memory:" + getMemory() + " rotations:" + rotations + ")";
+	}
+
+}
@@ -18,23 +18,22 @@ package ch.usi.da.paxos.ring;
  * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.io.File;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
-import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.log4j.Logger;
 
-import ch.usi.da.paxos.Util;
 import ch.usi.da.paxos.api.ConfigKey;
+import ch.usi.da.paxos.api.DecisionHandler;
 import ch.usi.da.paxos.api.Learner;
 import ch.usi.da.paxos.api.PaxosNode;
 import ch.usi.da.paxos.api.PaxosRole;
@@ -65,7 +64,7 @@ public class ElasticLearnerRole extends Role implements Learner {
 	
 	private final int maxRing = 100;
 	
-	private final BlockingQueue<Decision> values = new LinkedBlockingQueue<Decision>(); 
+	private final DecisionQueue values = new DecisionQueue(); 
 	
 	private final LearnerRole[] learner = new LearnerRole[maxRing];
 	
@@ -77,11 +76,47 @@ public class ElasticLearnerRole extends Role implements Learner {
 
 	private final long[] v_count = new long[maxRing];
 
+	private final int[] weight = new int[maxRing]; // values per round (M)
+
+	private final long[] v_base = new long[maxRing]; // v_count at the last weight change
+
+	private final long[] p_base = new long[maxRing]; // position at the last weight change
+
 	private long v_subscribe = 0;
 	
 	private boolean deliver_skip_messages = false;
 	
-	private final Map<Integer,Map<Long, Long>> instance_values = new HashMap<Integer,Map<Long, Long>>();
+	private final PositionIndex[] index = new PositionIndex[maxRing];
+
+	private final int position_index = 1048576; // instances per ring
+
+	private PositionServer position_server = null;
+
+	private final boolean[] v_recovered = new boolean[maxRing]; // v_count of the first decision known
+
+	private final AtomicLongArray v_recovery = new AtomicLongArray(maxRing); // result of a recovery thread (-1: none)
+
+	private final Thread[] recovery_thread = new Thread[maxRing];
+
+	private final DecisionSignal signal = new DecisionSignal();
+
+	private final Decision[][] batch = new Decision[maxRing][];
+
+	private final int[] batch_pos = new int[maxRing];
+
+	private final int[] batch_len = new int[maxRing];
+
+	private int rr_count = 0;
+
+	private Control sync = null; // subscribe in progress
+
+	private Decision sync_decision = null;
+
+	private long sync_position = -1;
+
+	private final long[] last_instance = new long[maxRing];
+
+	private final long[] wait_time = new long[maxRing];
 	
 	/**
 	 * @param initial_ring the RingDescription of the initial ring
@@ -107,187 +142,347 @@ public class ElasticLearnerRole extends Role implements Learner {
 	public void run() {
 		// create initial learner
 		int initial_ring = rings.get(0);
+		try {
+			position_server = new PositionServer(this,ringmap.get(initial_ring).getRingManager().getNodeAddress().getAddress());
+			Thread t = new Thread(position_server);
+			t.setName("PositionServer");
+			t.start();
+		} catch (IOException e) {
+			logger.error("ElasticLearnerRole failed to start the PositionServer",e);
+		}
 		startLearner(initial_ring);
-		int rr_count = 0;
-		
+		try{
+			// recover the value count of the initial ring before the merge starts
+			while(peek(initial_ring) == null){
+				batch_pos[initial_ring] = 0;
+				batch_len[initial_ring] = learner[initial_ring].getDecisionQueue().drain(batch[initial_ring],1,TimeUnit.SECONDS);
+			}
+			Decision first = peek(initial_ring);
+			if(first.getInstance() > 1){
+				v_count[initial_ring] = recoverVCount(first.getInstance(),initial_ring);
+			}
+			v_recovered[initial_ring] = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
 		while(true){
 			try{
-				if(skip_count[deliverRing] > 0){
-					rr_count++;
-					skip_count[deliverRing]--;
+				if(merge()){
+					continue;
+				}
+				signal.prepare();
+				if(merge()){ // a decision arrived before prepare()
+					signal.cancel();
+					continue;
+				}
+				int r = sync != null ? newRing : deliverRing;
+				long t = System.nanoTime();
+				signal.await(100000000L); // or a ring added by another thread
+				wait_time[r] = wait_time[r] + (System.nanoTime()-t);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;				
+			}
+		}
+	}
+
+	/**
+	 * Deliver in round-robin order until the ring in turn has no decision
+	 * 
+	 * @return true if a decision was merged
+	 * @throws InterruptedException
+	 */
+	private boolean merge() throws InterruptedException {
+		boolean merged = false;
+		while(true){
+			if(sync != null){
+				if(!subscribe()){
+					return merged;
+				}
+				merged = true;
+				continue;
+			}
+			if(skip_count[deliverRing] > 0){
+				rr_count++;
+				skip_count[deliverRing]--;
+				v_count[deliverRing]++;
+				//logger.debug("ElasticLearnerRole " + ringmap.get(deliverRing).getNodeID() + " ring " + deliverRing + " skiped a value (" + skip_count[deliverRing] + " skips left)");
+			}else{
+				Decision d = peek(deliverRing);
+				if(d == null || !recovered(deliverRing,d)){
+					return merged;
+				}
+				next(deliverRing);
+				if(index[deliverRing] != null){ // only the first decision of an instance (not the batch entries and skips after it)
+					index[deliverRing].record(d.getInstance(),v_count[deliverRing]);
+				}
+				last_instance[deliverRing] = d.getInstance();
+
+				if(d.getValue() != null && d.getValue().isControl()){
 					v_count[deliverRing]++;
-					//logger.debug("ElasticLearnerRole " + ringmap.get(deliverRing).getNodeID() + " ring " + deliverRing + " skiped a value (" + skip_count[deliverRing] + " skips left)");
-				}else{
-					Decision d = learner[deliverRing].getDecisions().take();
-					if(v_count[deliverRing] == 0 && d.getInstance() > 1){
-						v_count[deliverRing] = recoverVCount(d.getInstance(),deliverRing);
-					}
-					instance_values.get(deliverRing).put(d.getInstance(),v_count[deliverRing]);
-
-					if(d.getValue() != null && d.getValue().isControl()){
-						v_count[deliverRing]++;
-						// control message
-						try {
-							Control control = Control.fromWire(d.getValue().getValue());
-							ControlType type = control.getType();
-							int group = control.getGroupID();
-							int ring = control.getRingID();
-							if(type == ControlType.Prepare){
-								if(replication_group == group){
-									logger.info("ElasticLearner received prepare: " + ring + " for group " + group);
-								}
-								if(learner[ring] == null && replication_group == group){
-									newRing = ring;
-									List<PaxosRole> rl = new ArrayList<PaxosRole>();
-									rl.add(PaxosRole.Learner);
-									final RingDescription rd = new RingDescription(newRing,rl);
-									ringmap.put(newRing,rd);
-									final Thread start = new Thread("Prepare " + newRing){		    			
-						    			@Override
-						    			public void run() {
-						    				if(!node.updateRing(rd)){
-												logger.error("ElasticLearnerRole failed to create Learner in ring " + newRing);
-											}
-											startLearner(newRing);
-						    			}
-									};
-									start.start();
-								}
-							}else if(type == ControlType.Subscribe){
-								if(replication_group == group){
-									logger.info("ElasticLearner received subscribe: " + ring + " for group " + group);
-								}
-								if(learner[ring] == null && replication_group == group){
-									newRing = ring;
-									List<PaxosRole> rl = new ArrayList<PaxosRole>();
-									rl.add(PaxosRole.Learner);
-									RingDescription rd = new RingDescription(newRing,rl);
-									ringmap.put(newRing,rd);
-									if(!node.updateRing(rd)){
-										logger.error("ElasticLearnerRole failed to create Learner in ring " + newRing);
-									}
-									startLearner(newRing);
-								}
-								if(replication_group == group && (rings.contains(ring) || v_subscribe != 0)){
-									logger.warn("ElatisLearner received subscribed for already registered ring!");
-								}else if(learner[ring] != null && replication_group == group){
-									while(true){
-										Decision d2 = learner[newRing].getDecisions().take();
-										if(v_count[newRing] == 0 && d2.getInstance() > 1){
-											v_count[newRing] = recoverVCount(d2.getInstance(),newRing);
-										}
-										if(d2.getValue() != null && d2.getValue().isSkip()){
-											try {
-												long skip = Long.parseLong(new String(d2.getValue().getValue()));
-												v_count[newRing] = v_count[newRing] + skip;
-											}catch (NumberFormatException e) {
-												logger.error("ElasticLearnerRole received incomplete SKIP message in new ring! -> " + d2,e);
-											}										
-										}
-										else{
-											v_count[newRing]++;
-										}
-										if(d2 != null && d2.getValue().isControl()){
-											Control control2 = Control.fromWire(d2.getValue().getValue());
-											if(control.equals(control2)){
-												break;
-											}
-										}
-									}
-									long maxPosition = 0;
-									if(v_count[deliverRing] > maxPosition){
-										maxPosition = v_count[deliverRing];
-									}
-									if(v_count[newRing] > maxPosition){
-										maxPosition = v_count[newRing];
-									}
-									v_subscribe = maxPosition+1;
-									// align the new stream
-									if(v_count[newRing] < maxPosition){
-										while(true){
-											Decision d2 = learner[newRing].getDecisions().take();
-											if(d2.getValue() != null && d2.getValue().isSkip()){
-												try {
-													long skip = Long.parseLong(new String(d2.getValue().getValue()));
-													v_count[newRing] = v_count[newRing] + skip;
-												}catch (NumberFormatException e) {
-													logger.error("ElasticLearnerRole received incomplete SKIP message in new ring! -> " + d2,e);
-												}										
-											}
-											else{
-												v_count[newRing]++;
-											}
-											if(v_count[newRing] >= maxPosition){ // >= because of skips
-												break;
-											}
-										}
-									}
-									logger.info("ElasticLearner subscribe to ring " + newRing + " in group " + group + " at position " + v_subscribe);
-									if(logger.isDebugEnabled()){
-										for(Integer r : rings){
-											logger.debug("ElasticLearner subsciption v_count for " + r + " -> " + v_count[r]);
+					// control message
+					try {
+						Control control = Control.fromWire(d.getValue().getValue());
+						ControlType type = control.getType();
+						int group = control.getGroupID();
+						int ring = control.getRingID();
+						if(type == ControlType.Prepare){
+							if(replication_group == group){
+								logger.info("ElasticLearner received prepare: " + ring + " for group " + group);
+							}
+							if(learner[ring] == null && replication_group == group){
+								newRing = ring;
+								List<PaxosRole> rl = new ArrayList<PaxosRole>();
+								rl.add(PaxosRole.Learner);
+								final RingDescription rd = new RingDescription(newRing,rl);
+								ringmap.put(newRing,rd);
+								final Thread start = new Thread("Prepare " + newRing){		    			
+					    			@Override
+					    			public void run() {
+					    				if(!node.updateRing(rd)){
+											logger.error("ElasticLearnerRole failed to create Learner in ring " + newRing);
 										}
-									}
-									deliverRing = getRingSuccessor(deliverRing);
-								}else{
-									rr_count++; //skip it in queue
+										startLearner(newRing);
+					    			}
+								};
+								start.start();
+							}
+						}else if(type == ControlType.Subscribe){
+							if(replication_group == group){
+								logger.info("ElasticLearner received subscribe: " + ring + " for group " + group);
+							}
+							if(learner[ring] == null && replication_group == group){
+								newRing = ring;
+								List<PaxosRole> rl = new ArrayList<PaxosRole>();
+								rl.add(PaxosRole.Learner);
+								RingDescription rd = new RingDescription(newRing,rl);
+								ringmap.put(newRing,rd);
+								if(!node.updateRing(rd)){
+									logger.error("ElasticLearnerRole failed to create Learner in ring " + newRing);
 								}
-							}else if(type == ControlType.Unsubscribe){
-								if(replication_group == group){
-									logger.info("ElasticLearner received unsubscribe for ring " + ring + " in group " + group);
+								startLearner(newRing);
+							}
+							if(replication_group == group && rings.contains(ring) && v_subscribe == 0 && control.getWeight() > 0){
+								setWeight(ring,control.getWeight());
+							}else if(replication_group == group && (rings.contains(ring) || v_subscribe != 0)){
+								logger.warn("ElatisLearner received subscribed for already registered ring!");
+							}else if(learner[ring] != null && replication_group == group){
+								if(control.getWeight() > 0){
+									setWeight(ring,control.getWeight());
 								}
-								if(learner[ring] != null && replication_group == group){
-									rings.remove(new Integer(ring)); // remove entry not index position
-									final int close = ring;
-									final Thread stop = new Thread("Prepare " + newRing){		    			
-						    			@Override
-						    			public void run() {
-											((LearnerRole)ringmap.get(close).getRingManager().getNetwork().getLearner()).close();
-											try {
-												ringmap.get(close).getRingManager().close();
-											} catch (InterruptedException e) {
-											}
-						    			}
-									};
-									stop.start();									
-									learner[ring] = null;
-									deliverRing = minRing(rings); 
-									logger.info("ElasticLearner removed ring " + ring + " at position " + v_count[ring]);
-									v_count[ring] = 0;
-								}								
+								// read the new stream up to this control message (see subscribe())
+								sync = control;
+								sync_decision = d;
+								sync_position = -1;
+								merged = true;
+								continue;
+							}else{
+								rr_count++; //skip it in queue
 							}
-						}catch (NumberFormatException e) {
-							logger.error("ElasticLearnerRole received incomplete subscribe message! -> " + d,e);
-						}
-						if(deliver_skip_messages){
-							values.add(d);
-						}
-					}else if(d.getValue() != null && d.getValue().isSkip()){
-						// skip message
-						try {
-							long skip = Long.parseLong(new String(d.getValue().getValue()));
-							skip_count[deliverRing] = skip_count[deliverRing] + skip;
-						}catch (NumberFormatException e) {
-							logger.error("ElasticLearnerRole received incomplete SKIP message! -> " + d,e);
-						}
-						if(deliver_skip_messages){
-							values.add(d);
+						}else if(type == ControlType.Unsubscribe){
+							if(replication_group == group){
+								logger.info("ElasticLearner received unsubscribe for ring " + ring + " in group " + group);
+							}
+							if(learner[ring] != null && replication_group == group){
+								rings.remove(new Integer(ring)); // remove entry not index position
+								final int close = ring;
+								final Thread stop = new Thread("Prepare " + newRing){		    			
+					    			@Override
+					    			public void run() {
+										((LearnerRole)ringmap.get(close).getRingManager().getNetwork().getLearner()).close();
+										try {
+											ringmap.get(close).getRingManager().close();
+										} catch (InterruptedException e) {
+										}
+					    			}
+								};
+								stop.start();
+								learner[ring].getDecisionQueue().setSignal(null);
+								learner[ring] = null;
+								batch_pos[ring] = batch_len[ring];
+								if(index[ring] != null){
+									index[ring].close();
+									index[ring] = null;
+								}
+								deliverRing = minRing(rings); 
+								logger.info("ElasticLearner removed ring " + ring + " at position " + v_count[ring]);
+								v_count[ring] = 0;
+								v_recovered[ring] = false;
+								v_base[ring] = 0;
+								p_base[ring] = 0;
+							}								
 						}
-					}else{
-						rr_count++;
-						v_count[deliverRing]++;
-						values.add(d); // deliver an actual proposed value
+					}catch (NumberFormatException e) {
+						logger.error("ElasticLearnerRole received incomplete subscribe message! -> " + d,e);
+					}
+					if(deliver_skip_messages){
+						values.put(d);
+					}
+				}else if(d.getValue() != null && d.getValue().isSkip()){
+					// skip message
+					skip_count[deliverRing] = skip_count[deliverRing] + d.getValue().getSkip();
+					if(deliver_skip_messages){
+						values.put(d);
 					}
+				}else{
+					rr_count++;
+					v_count[deliverRing]++;
+					values.put(d); // deliver an actual proposed value
+				}
+			}
+			merged = true;
+			if(rr_count >= weight[deliverRing]){
+				rr_count = 0;
+				deliverRing = getRingSuccessor(deliverRing);
+			}
+		}
+	}
+
+	/**
+	 * Align the stream of the subscribed ring: read it up to the subscribe
+	 * control message and then up to the position of the current ring.
+	 * 
+	 * @return true if a decision of the new ring was read
+	 * @throws InterruptedException
+	 */
+	private boolean subscribe() throws InterruptedException {
+		if(sync_position < 0){
+			Decision d2 = peek(newRing);
+			if(d2 == null || !recovered(newRing,d2)){
+				return false;
+			}
+			next(newRing);
+			if(d2.getValue() != null && d2.getValue().isSkip()){
+				v_count[newRing] = v_count[newRing] + d2.getValue().getSkip();
+			}
+			else{
+				v_count[newRing]++;
+			}
+			last_instance[newRing] = d2.getInstance();
+			Control control2 = null;
+			if(d2.getValue() != null && d2.getValue().isControl()){
+				try {
+					control2 = Control.fromWire(d2.getValue().getValue());
+				}catch (NumberFormatException e) {
+					logger.error("ElasticLearnerRole received incomplete control message! -> " + d2,e);
 				}
-				if(rr_count >= 1){ // removed variable M
-					rr_count = 0;
-					deliverRing = getRingSuccessor(deliverRing);
+			}
+			if(control2 != null && sync.equals(control2)){
+				long maxPosition = 0;
+				if(position(deliverRing) > maxPosition){
+					maxPosition = position(deliverRing);
 				}
-			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
-				break;				
+				if(position(newRing) > maxPosition){
+					maxPosition = position(newRing);
+				}
+				v_subscribe = maxPosition+1;
+				sync_position = maxPosition;
+			}
+			return true;
+		}
+		// align the new stream (it can pass the position because of skips)
+		if(position(newRing) < sync_position){
+			Decision d2 = next(newRing);
+			if(d2 == null){
+				return false;
+			}
+			if(d2.getValue() != null && d2.getValue().isSkip()){
+				v_count[newRing] = v_count[newRing] + d2.getValue().getSkip();
+			}
+			else{
+				v_count[newRing]++;
 			}
+			last_instance[newRing] = d2.getInstance();
+			return true;
 		}
+		logger.info("ElasticLearner subscribe to ring " + newRing + " in group " + sync.getGroupID() + " at position " + v_subscribe);
+		if(logger.isDebugEnabled()){
+			for(Integer r : rings){
+				logger.debug("ElasticLearner subsciption v_count for " + r + " -> " + v_count[r] + " (position " + position(r) + ")");
+			}
+		}
+		deliverRing = getRingSuccessor(deliverRing);
+		Decision d = sync_decision;
+		sync = null;
+		sync_decision = null;
+		if(deliver_skip_messages){
+			values.put(d);
+		}
+		return true;
+	}
+
+	/**
+	 * @param ring
+	 * @return the next decision of the ring or null (does not wait)
+	 */
+	private Decision peek(int ring){
+		if(batch_pos[ring] >= batch_len[ring]){
+			LearnerRole l = learner[ring];
+			if(l == null){
+				return null;
+			}
+			batch_pos[ring] = 0;
+			batch_len[ring] = l.getDecisionQueue().poll(batch[ring]);
+			if(batch_len[ring] == 0){
+				return null;
+			}
+		}
+		return batch[ring][batch_pos[ring]];
+	}
+
+	/**
+	 * @param ring
+	 * @return the next decision of the ring or null (does not wait)
+	 */
+	private Decision next(int ring){
+		Decision d = peek(ring);
+		if(d != null){
+			batch[ring][batch_pos[ring]++] = null;
+		}
+		return d;
+	}
+
+	/**
+	 * The value count before the first decision of a ring: from the own
+	 * index or else by a recovery thread (the merge does not wait for it)
+	 * 
+	 * @param ring
+	 * @param d the first decision
+	 * @return true if the value count is known
+	 */
+	private boolean recovered(int ring, Decision d){
+		if(v_recovered[ring]){
+			return true;
+		}
+		if(d.getInstance() <= 1){
+			v_recovered[ring] = true;
+			return true;
+		}
+		long vc = getPosition(ring,d.getInstance());
+		if(vc < 0 && recovery_thread[ring] == null){
+			final int r = ring;
+			final long instance = d.getInstance();
+			recovery_thread[ring] = new Thread("Recover-" + ring){
+				@Override
+				public void run() {
+					v_recovery.set(r,recoverVCount(instance,r));
+					signal.signal();
+				}
+			};
+			recovery_thread[ring].start();
+			return false;
+		}else if(vc < 0){
+			vc = v_recovery.get(ring);
+			if(vc < 0){
+				return false; // recovery thread not done
+			}
+		}
+		v_count[ring] = vc;
+		v_recovered[ring] = true;
+		recovery_thread[ring] = null;
+		v_recovery.set(ring,-1);
+		return true;
 	}
 
 	private void startLearner(int ringID){
@@ -296,31 +491,66 @@ public class ElasticLearnerRole extends Role implements Learner {
 		learner[ringID] = (LearnerRole) r;
 		logger.debug("ElasticLearnerRole register role: " + PaxosRole.Learner + " at node " + ring.getNodeID() + " in ring " + ring.getRingID());
 		ring.registerRole(PaxosRole.Learner);		
+		batch_pos[ringID] = 0;
+		batch_len[ringID] = 0;
+		batch[ringID] = new Decision[1024];
+		v_recovered[ringID] = false;
+		v_recovery.set(ringID,-1);
+		learner[ringID].getDecisionQueue().setSignal(signal);
+		weight[ringID] = 1;
+		v_base[ringID] = 0;
+		p_base[ringID] = 0;
+		if(ring.getConfiguration().containsKey(ConfigKey.multi_ring_m)){
+			weight[ringID] = Math.max(1,Integer.parseInt(ring.getConfiguration().get(ConfigKey.multi_ring_m)));
+			logger.info("ElasticLearnerRole ring " + ringID + " multi_ring_m: " + weight[ringID]);
+		}
 		Thread t = new Thread(r);
 		t.setName(PaxosRole.Learner + "-" + ringID);
 		t.start();
 		skip_count[ringID] = 0;
-		Map<Long, Long> map = new LinkedHashMap<Long,Long>(10000,0.75F,false){
-		private static final long serialVersionUID = -2704400128020326063L;
-			protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {  
-				return size() > 15000; // hold only 15'000 values in memory !                                 
-			}
-		};
-		instance_values.put(ringID,map);
+		String path = "/tmp";
+		String db_path = System.getenv("DB");
+		if(db_path != null){
+			path = db_path;
+		}
 		try {
-			DatagramSocket signalReceiver = new DatagramSocket(ringmap.get(ringID).getRingManager().getNodeAddress());
-			Thread t2 = new Thread(new SignalReceiver(signalReceiver));
-			t2.setName("SignalReceiver-" + ringID);
-			t2.start();
-		} catch (SocketException e) {
-			logger.error(e);
+			index[ringID] = new PositionIndex(new File(path + "/ringpaxos-position/" + ringID + "-" + ring.getNodeID()),position_index,ringID,weight[ringID]);
+			if(index[ringID].isRestored()){
+				logger.info("ElasticLearnerRole restored position index of ring " + ringID + " from instance " + index[ringID].getStart());
+			}
+		} catch (IOException e) {
+			logger.error("ElasticLearnerRole failed to open the position index of ring " + ringID,e);
+		}
+		if(position_server != null){
+			ring.setPositionPort(position_server.getPort());
 		}
 	}
 	
+	/**
+	 * @param ring
+	 * @return the rounds of the merge the ring has delivered (v_count/M)
+	 */
+	private long position(int ring){
+		return p_base[ring] + (v_count[ring]-v_base[ring])/weight[ring];
+	}
+
+	/**
+	 * Change the values per round of a ring (the position stays)
+	 * 
+	 * @param ring
+	 * @param m
+	 */
+	private void setWeight(int ring, int m){
+		p_base[ring] = position(ring);
+		v_base[ring] = v_count[ring];
+		weight[ring] = m;
+		logger.info("ElasticLearner ring " + ring + " multi_ring_m: " + m + " at position " + p_base[ring]);
+	}
+
 	private int getRingSuccessor(int id){
 		boolean add = true;
 		for(Integer r : rings){
-			if(v_count[r] != v_subscribe-1){
+			if(position(r) < v_subscribe-1){
 				add = false;
 			}
 		}
@@ -353,64 +583,115 @@ public class ElasticLearnerRole extends Role implements Learner {
 		return values;
 	}
 
+	@Override
+	public int getDecisions(Decision[] decisions, long timeout, TimeUnit unit) throws InterruptedException {
+		return values.drain(decisions,timeout,unit);
+	}
+
+	@Override
+	public void setDecisionHandler(DecisionHandler handler, boolean direct){
+		values.setHandler(handler,direct);
+	}
+
+	/**
+	 * @param ring
+	 * @return the decisions of the ring not yet merged
+	 */
+	public long getQueued(int ring){
+		LearnerRole l = learner[ring];
+		if(l == null){
+			return 0;
+		}
+		return l.getDecisionQueue().size() + Math.max(0,batch_len[ring]-batch_pos[ring]);
+	}
+
+	/**
+	 * @param ring
+	 * @return the values per round of the ring (M)
+	 */
+	public int getWeight(int ring){
+		return weight[ring];
+	}
+
+	/**
+	 * @param ring
+	 * @return the last merged instance of the ring
+	 */
+	public long getLastInstance(int ring){
+		return last_instance[ring];
+	}
+
+	/**
+	 * @param ring
+	 * @return nanoseconds the merge waited for a decision of this ring
+	 */
+	public long getWaitTime(int ring){
+		return wait_time[ring];
+	}
+
+	/**
+	 * @return the ring in turn
+	 */
+	public int getDeliverRing(){
+		return sync != null ? newRing : deliverRing;
+	}
+
+	/**
+	 * @return the merge lag per ring: ring -> decisions not yet merged
+	 */
+	public Map<Integer,Long> getRingLag(){
+		Map<Integer,Long> m = new LinkedHashMap<Integer,Long>();
+		for(int r=0;r<maxRing;r++){
+			if(learner[r] != null){
+				m.put(r,getQueued(r));
+			}
+		}
+		return m;
+	}
+
 	public void setSafeInstance(Integer ring, Long instance) {
 		learner[ring].setSafeInstance(ring,instance);
 	}
 
+	/**
+	 * @param ring
+	 * @param instance
+	 * @return the value count of the ring before the instance (-1: not in the index)
+	 */
+	public long getPosition(int ring, long instance){
+		PositionIndex i = ring >= 0 && ring < maxRing ? index[ring] : null;
+		return i != null ? i.get(instance) : -1;
+	}
+
 	private long recoverVCount(long instance, int ringID){
+		long vc = getPosition(ringID,instance);
+		if(vc >= 0){
+			logger.info("ElasticLearner resumes ring " + ringID + " at instance " + instance + " with value count " + vc);
+			return vc;
+		}
 		// ask an existing ElatisLearner for instance (get v_count before this instance)
 		logger.warn("ElasticLearner must recover the value count for ring " + ringID + "!");
-		List<Integer> learners = ringmap.get(ringID).getRingManager().getLearners();
+		RingManager ring = ringmap.get(ringID).getRingManager();
+		List<Integer> learners = ring.getLearners();
 		for(Integer learner : learners){
 			if(learner != node.getNodeID()){
-				try {
-					InetSocketAddress ip = ringmap.get(ringID).getRingManager().getNodeAddress(learner);
-					byte[] buffer = new String(instance + "," + ringID).getBytes();
-					DatagramPacket packet = new DatagramPacket(buffer,0,buffer.length,ip);
-					DatagramSocket signalSender = new DatagramSocket();
-					signalSender.send(packet);
-					buffer = new byte[65535];
-					packet = new DatagramPacket(buffer,buffer.length);
-					signalSender.receive(packet);
-					long vc = Util.byteToLong(packet.getData());
-					signalSender.close();
-					logger.info("Received value count for instance " + instance + " " + vc);
-					return vc;
-				} catch (IOException e) {
-					logger.error(e);
+				InetSocketAddress addr = ring.getPositionAddress(learner);
+				if(addr == null){
+					continue;
 				}
-			}
-		}
-		return 0;
-	}
-	
-	class SignalReceiver implements Runnable {
-
-		private final DatagramSocket socket;
-						
-		public SignalReceiver(DatagramSocket socket) throws SocketException{
-			this.socket = socket;
-		}
-
-		@Override
-		public void run() {
-			while(!socket.isClosed()){
 				try {
-					byte[] buffer = new byte[65535];
-					DatagramPacket packet = new DatagramPacket(buffer,buffer.length);
-					socket.receive(packet);
-					String[] s = new String(packet.getData()).trim().split(",");
-					long instance = Long.parseLong(s[0]);//Util.byteToLong(packet.getData());
-					int ringID = Integer.parseInt(s[1]);
-					long vc = instance_values.get(ringID).get(instance);
-					buffer = Util.longToByte(vc);
-					packet = new DatagramPacket(buffer,0,buffer.length,packet.getAddress(),packet.getPort());
-					socket.send(packet);
+					vc = PositionServer.request(addr,ringID,instance);
+					if(vc >= 0){
+						logger.info("Received value count for instance " + instance + " " + vc + " from " + addr);
+						return vc;
+					}
 				} catch (IOException e) {
-					logger.error(e);
+					logger.warn("ElasticLearner position request to " + addr + " failed: " + e);
 				}
 			}
 		}
+		logger.error("ElasticLearner could not recover the value count for ring " + ringID + " at instance " + instance + "!");
+		return 0;
 	}
 
 }
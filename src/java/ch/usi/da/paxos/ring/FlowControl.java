@@ -0,0 +1,164 @@
+package ch.usi.da.paxos.ring;
+/*
+ * Copyright (c) 2015 Università della Svizzera italiana (USI)
+ *
+ * This file is part of URingPaxos.
+ *
+ * URingPaxos is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * URingPaxos is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Name: FlowControl<br>
+ * Description: <br>
+ *
+ * AIMD window for the undecided (in-flight) Phase2 instances of a ring.
+ *
+ * Every decision increases the window by 1/window (one instance per
+ * window). If the Phase2 to Decision latency exceeds twice the base
+ * latency (the smallest latency seen in the last 10s) or an instance
+ * times out, the window is halved (at most once per latency).
+ *
+ * Creation date: Oct 23, 2015<br>
+ * $Id$
+ *
+ * @author Samuel Benz benz@geoid.ch
+ */
+public class FlowControl {
+
+	private final static double alpha = 0.1; // EWMA weight of a new sample
+
+	private final static long base_reset = 10000; // ms
+
+	private final int min = 10;
+
+	private final int max;
+
+	private volatile double window;
+
+	private final Map<Long,Long> inflight = new ConcurrentHashMap<Long,Long>();
+
+	private double latency = 0; // ms
+
+	private double base = 0; // ms
+
+	private long base_date = System.currentTimeMillis();
+
+	private long last_decrease = 0;
+
+	private long decreased = 0;
+
+	/**
+	 * @param max largest window
+	 */
+	public FlowControl(int max){
+		this.max = Math.max(min,max);
+		this.window = this.max;
+	}
+
+	/**
+	 * @return true if a new instance can be started
+	 */
+	public boolean admit(){
+		return inflight.size() < (int)window;
+	}
+
+	/**
+	 * @param instance a started instance
+	 */
+	public void sent(long instance){
+		inflight.put(instance,System.nanoTime());
+	}
+
+	/**
+	 * @param instance a decided instance
+	 * @return true if the instance was in-flight
+	 */
+	public synchronized boolean decided(long instance){
+		Long t = inflight.remove(instance);
+		if(t == null){
+			return false;
+		}
+		double l = (System.nanoTime()-t)/1000000.0;
+		latency = latency == 0 ? l : (1-alpha)*latency + alpha*l;
+		long time = System.currentTimeMillis();
+		if(base == 0 || l < base || time-base_date > base_reset){
+			base = l;
+			base_date = time;
+		}
+		if(l > 2*base + 1){
+			decrease(time);
+		}else{
+			window = Math.min(max,window + 1/window);
+		}
+		return true;
+	}
+
+	/**
+	 * @param timeout in ms
+	 * @return the number of expired instances
+	 */
+	public synchronized int expire(long timeout){
+		long now = System.nanoTime();
+		int n = 0;
+		Iterator<Long> i = inflight.values().iterator();
+		while(i.hasNext()){
+			if((now-i.next())/1000000 > timeout){
+				i.remove();
+				n++;
+			}
+		}
+		if(n > 0){
+			decrease(System.currentTimeMillis());
+		}
+		return n;
+	}
+
+	private void decrease(long time){
+		if(time-last_decrease > latency){
+			window = Math.max(min,window/2);
+			last_decrease = time;
+			decreased++;
+		}
+	}
+
+	/**
+	 * @return the current window
+	 */
+	public int getWindow(){
+		return (int)window;
+	}
+
+	/**
+	 * @return the in-flight instances
+	 */
+	public int getInFlight(){
+		return inflight.size();
+	}
+
+	/**
+	 * @return the Phase2 to Decision latency in ms
+	 */
+	public synchronized double getLatency(){
+		return latency;
+	}
+
+	public String toString(){
+		return String.format("FlowControl(window:%d inflight:%d latency:%.1fms decreased:%d)",getWindow(),getInFlight(),getLatency(),decreased);
+	}
+
+}
@@ -48,6 +48,12 @@ public class InstanceSkipper implements Runnable {
 	
 	private final int static_latency_compensation;
 	
+	private SkipController controller = null; // adaptive (null: static lambda)
+	
+	private long skipped = 0;
+	
+	private long last_claimed = 0;
+	
 	public InstanceSkipper(RingManager ring,CoordinatorRole coordinator) {
 		this.coordinator = coordinator;
 		this.ring = ring;
@@ -70,11 +76,17 @@ public class InstanceSkipper implements Runnable {
 			static_latency = 0;
 		}
 		static_latency_compensation = static_latency;
+		if(ring.getConfiguration().containsKey(ConfigKey.multi_ring_adaptive)){
+			if(ring.getConfiguration().get(ConfigKey.multi_ring_adaptive).equals("1")){
+				controller = new SkipController(ring,coordinator.multi_ring_delta_t);
+			}
+			logger.info("InstanceSkipper multi_ring_adaptive: " + (controller != null ? "enabled" : "disabled"));
+		}
 	}
 	
 	@Override
 	public void run() {
-		if(coordinator.multi_ring_lambda>0){
+		if(coordinator.multi_ring_lambda>0 || controller != null){
 		while(ring.isNodeCoordinator()){
 			try {
 				long time = System.currentTimeMillis();
@@ -83,33 +95,44 @@ public class InstanceSkipper implements Runnable {
 					latency_compensation = static_latency_compensation;
 				}
 				long valueSent = coordinator.value_count.get();
-				float executionTime = ((float)(time-boot_time-latency_compensation)) / 1000.0f;
-				long expectedValues = (long) ((coordinator.multi_ring_lambda) * executionTime);
+				long expectedValues = 0;
+				if(coordinator.multi_ring_lambda>0){
+					float executionTime = ((float)(time-boot_time-latency_compensation)) / 1000.0f;
+					expectedValues = (long) ((coordinator.multi_ring_lambda) * executionTime);
+				}
+				if(controller != null){ // follow the fastest ring
+					expectedValues = Math.max(expectedValues,controller.getTarget(valueSent,skipped,time));
+				}
 				long skip = expectedValues - valueSent;
 				if(skip > 0) {
 					if(logger.isTraceEnabled()){
 						logger.trace(String.format("InstanceSkipper sent skip %d values", skip));
 					}
-					Promise p = null;
-					try {
-						p = coordinator.getPromiseQueue().take(); // wait for a promise
-					} catch (InterruptedException e) {
-					}
-					//send Phase2 with skip value
-					if(p != null){
-						Value v = new Value(Value.getSkipID(),Long.toString(skip).getBytes());
-						coordinator.value_count.addAndGet(skip);
-						Message m = new Message(p.getInstance(),ring.getNodeID(),PaxosRole.Acceptor,MessageType.Phase2,p.getBallot(),0,v);
-						if(ring.getNetwork().getLearner() != null){
-							ring.getNetwork().getLearner().deliver(ring,m);
-						}
-						if(ring.getNetwork().getAcceptor() != null){
-							ring.getNetwork().getAcceptor().deliver(ring,m);
-						}else{ // else should never happen, since there is no coordinator without acceptor!
-							ring.getNetwork().send(m);
+					coordinator.value_count.addAndGet(skip);
+					skipped = skipped + skip;
+					coordinator.addSkip(skip); // piggybacked on the next Phase2
+				}
+				if(coordinator.getPromises().getClaimed() == last_claimed){ // no Phase2 since the last round
+					long s = coordinator.takeSkip();
+					if(s > 0){
+						Promise p = coordinator.getPromises().claim();
+						//send Phase2 with skip value
+						if(p != null){
+							Message m = new Message(p.getInstance(),ring.getNodeID(),PaxosRole.Acceptor,MessageType.Phase2,p.getBallot(),0,Value.skip(Value.getSkipID(),s));
+							if(ring.getNetwork().getLearner() != null){
+								ring.getNetwork().getLearner().deliver(ring,m);
+							}
+							if(ring.getNetwork().getAcceptor() != null){
+								ring.getNetwork().getAcceptor().deliver(ring,m);
+							}else{ // else should never happen, since there is no coordinator without acceptor!
+								ring.getNetwork().send(m);
+							}
+						}else{ // no promise: skip in the next round
+							coordinator.addSkip(s);
 						}
 					}
 				}
+				last_claimed = coordinator.getPromises().getClaimed();
 				Thread.sleep(coordinator.multi_ring_delta_t);
 			} catch (InterruptedException e) {
 				Thread.currentThread().interrupt();
@@ -19,24 +19,29 @@ package ch.usi.da.paxos.ring;
  */
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
+import ch.usi.da.paxos.Util;
 import ch.usi.da.paxos.api.ConfigKey;
+import ch.usi.da.paxos.api.DecisionHandler;
 import ch.usi.da.paxos.api.Learner;
 import ch.usi.da.paxos.api.PaxosRole;
 import ch.usi.da.paxos.message.Message;
 import ch.usi.da.paxos.message.MessageType;
 import ch.usi.da.paxos.message.Value;
+import ch.usi.da.paxos.message.ValuePack;
 import ch.usi.da.paxos.storage.Decision;
 
 /**
@@ -56,26 +61,44 @@ public class LearnerRole extends Role implements Learner {
 	
 	private final Map<String,Value> learned = new ConcurrentHashMap<String,Value>();
 	
-	private final LinkedList<Decision> delivery = new LinkedList<Decision>();
+	private final static int reorder_window = 1048576; // max. instances ahead of the delivered one
 	
-	private final BlockingQueue<Decision> values = new LinkedBlockingQueue<Decision>();
+	private final ReorderWindow delivery = new ReorderWindow(1024,reorder_window);
 	
-	// at most once delivery for the most recent 500k Values
-	Set<String> delivered = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>(){
-		private static final long serialVersionUID = -5679181663800465934L;
-		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
-	        return size() > 500000;
-	    }
-	});
-		
-	private long next_instance = 1; // only needed to optimize linked list insert
+	private final DecisionQueue values = new DecisionQueue();
+	
+	// batches (and what follows them) are unpacked outside of deliver()
+	private final DecisionQueue staged = new DecisionQueue(16384,100);
+	
+	private final AtomicInteger staged_count = new AtomicInteger(0);
+	
+	private Decision[] entries = new Decision[64];
 	
+	// at most once delivery for the most recent values
+	private final DuplicateFilter delivered;
+		
 	private long delivered_instance = 0;
 	
 	private long safe_instance = 0;
 	
 	private long highest_online_instance = 0;
 	
+	private final TimerWheel timer = TimerWheel.getShared();
+	
+	private final int relearn_time = 1000; // ms
+	
+	private TimerWheel.Timeout relearn = null; // pending re-request of the missing decisions
+	
+	private final Semaphore relearn_signal = new Semaphore(0); // the timer hands the re-request to the learner thread
+	
+	private final int relearn_range = 64; // max. instances per Relearn (the answers travel the whole ring)
+	
+	private boolean catchup = true; // stream larger gaps from an acceptor
+	
+	private Thread catchup_thread = null;
+	
+	private long catchup_stalled = 0; // a stream ended without progress at this instance
+	
 	private boolean auto_trim = false; // for testing purpose (safe_instance = delivered_instance)
 	
 	private boolean recovery = false;
@@ -84,9 +107,10 @@ public class LearnerRole extends Role implements Learner {
 
 	public volatile boolean terminate = false;
 			
-	public long deliver_count = 0;
+	// written by the network thread or the Unpacker
+	public final AtomicLong deliver_count = new AtomicLong();
 	
-	public long batch_count = 0;
+	public final AtomicLong batch_count = new AtomicLong();
 	
 	public long deliver_bytes = 0;
 	
@@ -107,37 +131,42 @@ public class LearnerRole extends Role implements Learner {
 			}
 			logger.info("Learner auto_trim: " + (auto_trim ? "enabled" : "disabled"));
 		}
+		if(ring.getConfiguration().containsKey(ConfigKey.learner_catchup)){
+			catchup = ring.getConfiguration().get(ConfigKey.learner_catchup).equals("1");
+			logger.info("Learner learner_catchup: " + (catchup ? "enabled" : "disabled"));
+		}
+		long dedup_memory = 8388608;
+		if(ring.getConfiguration().containsKey(ConfigKey.learner_dedup_memory)){
+			dedup_memory = Long.parseLong(ring.getConfiguration().get(ConfigKey.learner_dedup_memory));
+			logger.info("Learner learner_dedup_memory: " + dedup_memory);
+		}
+		delivered = new DuplicateFilter(dedup_memory);
 	}
 
 	@Override
 	public void run() {		
+		Thread u = new Thread(new Unpacker());
+		u.setName("LearnerUnpacker-" + ring.getRingID());
+		u.start();
 		ring.getNetwork().registerCallback(this);
 		Thread t = new Thread(new LearnerStatsWriter(ring,this));
 		t.setName("LearnerStatsWriter");
 		t.start();
+		long safe_time = 0;
 		while(!terminate){
 			try{
-				Decision head = delivery.peek();
 				// initial recovering
-				if(!recovered && recovery && head != null){
-					Message m = new Message(0,ring.getNodeID(),PaxosRole.Leader,MessageType.Safe,0,0,new Value("","0".getBytes()));
+				if(!recovered && recovery && !delivery.isEmpty() && System.currentTimeMillis() >= safe_time){
+					Message m = new Message(0,ring.getNodeID(),PaxosRole.Leader,MessageType.Safe,0,0,null);
 					m.setVoteCount(1);
 					logger.debug("Send safe message to recover highest_online_instance. (" + recovered + "," + delivery.isEmpty() + ")");
 					ring.getNetwork().send(m);
+					safe_time = System.currentTimeMillis() + 1000;
 				}
-				// re-request missing decisions
-				else if(head != null && head.getInstance() > delivered_instance){
-					for(long i=delivered_instance+1;i<head.getInstance();i++){
-						if(highest_online_instance == 0 || i >= highest_online_instance){
-							Message m = new Message(i,ring.getNodeID(),PaxosRole.Leader,MessageType.Relearn,0,0,null);
-							logger.warn("Learner re-request missing instance " + i);
-							ring.getNetwork().receive(m);
-						}else{
-							recovered = false;
-						}
-					}
+				if(relearn_signal.tryAcquire(1000,TimeUnit.MILLISECONDS)){
+					relearn_signal.drainPermits();
+					relearnMissing();
 				}
-				Thread.sleep(1000);
 			} catch (InterruptedException e) {
 				Thread.currentThread().interrupt();
 				break;				
@@ -153,87 +182,64 @@ public class LearnerRole extends Role implements Learner {
 			Decision d = null;
 			if(learned.get(m.getValue().getID()) != null){
 				// value was previously learned with an other message
-				d = new Decision(fromRing.getRingID(),m.getInstance(),m.getBallot(),learned.get(m.getValue().getID()));
+				d = new Decision(fromRing.getRingID(),m.getInstance(),m.getBallot(),learned.get(m.getValue().getID()).withSkip(m.getValue().getSkip()));
 				learned.remove(m.getValue().getID());
 			}else{
 				d = new Decision(fromRing.getRingID(),m.getInstance(),m.getBallot(),m.getValue());
 			}
+			if(d.getValue().isPack() && !d.getValue().isBatch()){
+				d = new Decision(fromRing.getRingID(),m.getInstance(),m.getBallot(),unpack(d.getValue()).withSkip(d.getValue().getSkip()));
+				if(d.getValue().getValue().length == 0){
+					if(d.getInstance() > delivered_instance){ // re-learn the assembled pack at once
+						Message r = new Message(d.getInstance(),ring.getNodeID(),PaxosRole.Acceptor,MessageType.Relearn,0,0,new Value("",Util.intToByte(1)));
+						logger.warn("Learner could not unpack instance " + d.getInstance() + "; re-request it");
+						ring.getNetwork().send(r);
+					}
+					return;
+				}
+			}
 			if(d != null && d.getValue().getValue().length > 0){
 				if(!recovered && !recovery){
-					next_instance = d.getInstance();
 					delivered_instance = d.getInstance()-1;
+					delivery.setBase(d.getInstance());
 					logger.info("Learner start from instance " + d.getInstance() + " without recovery");
 				}
-				if(d.getInstance() == next_instance){
-					delivery.add(d);
-					next_instance++;
-				}else{
-					int pos = findPos(d.getInstance());
-					if(pos >= 0){
-						delivery.add(pos,d);
-						if(pos == delivery.size()-1){
-							next_instance = d.getInstance().longValue()+1;
-						}
-					}
+				if(!delivery.add(d) && d.getInstance() >= delivery.getBase()+reorder_window){
+					logger.debug("Learner dropped decision " + d.getInstance() + " beyond " + delivery);
 				}
 				// deliver sorted instances
-				Decision head = null;
-				while((head = delivery.peek()) != null && head.getInstance()-1 <= delivered_instance){
-					if(head.getInstance()-1 == delivered_instance){
-						recovered = true;
-						Decision de = delivery.poll();
-						delivered_instance = de.getInstance();
-						if(auto_trim) { safe_instance = delivered_instance; }
-						deliver_bytes = deliver_bytes + de.getValue().getValue().length;
-						if(de.getValue().isBatch()){
-							batch_count++;
-							ByteBuffer buffer = ByteBuffer.wrap(de.getValue().getValue());
-							while(buffer.remaining() > 0){
-								try {
-									Message n = Message.fromBuffer(buffer);
-									// decision from a batch will contain same instance number for all entries !!!
-									Decision bd = new Decision(fromRing.getRingID(),m.getInstance(),m.getBallot(),n.getValue());
-									deliver_count++;
-									if(!delivered.contains(bd.getValue().getID())){
-										values.add(bd);
-										delivered.add(bd.getValue().getID());
-									}
-								} catch (Exception e) {
-									logger.error("Learner could not de-serialize batch message!" + e);
-								}
-							}
-						}else{
-							deliver_count++;
-							if(!delivered.contains(de.getValue().getID())){
-								values.add(de);
-								delivered.add(de.getValue().getID());
-							}
-						}
+				Decision de = null;
+				while((de = delivery.poll()) != null){
+					recovered = true;
+					delivered_instance = de.getInstance();
+					if(auto_trim) { safe_instance = delivered_instance; }
+					deliver_bytes = deliver_bytes + de.getValue().getValue().length;
+					if(de.getValue().isBatch() || staged_count.get() > 0){
+						staged_count.incrementAndGet(); // keep the order behind a batch
+						stage(de);
 					}else{
-						delivery.poll(); // remove duplicate
+						deliverValue(de);
 					}
 				}
+				scheduleRelearn();
 			}else{
 				logger.error("Learner received decision without value! " + m);
 			}
 		}else if(m.getType() == MessageType.Safe){
-			Value v = null;
-			if(m.getValue().getValue().length == 0){
-				v = new Value(m.getValue().getID(),String.valueOf(safe_instance).getBytes());
-			}else{
-				String s = new String(m.getValue().getValue());
-				v = new Value(m.getValue().getID(),(s + ";" + String.valueOf(safe_instance)).getBytes());
-			}
-			Message n = new Message(m.getInstance(),m.getSender(),m.getReceiver(),m.getType(),m.getBallot(),m.getBallot(),v);
+			// instance: min. safe instance of the learners on the way (vote count)
+			long safe = m.getVoteCount() == 0 ? safe_instance : Math.min(m.getInstance(),safe_instance);
+			Message n = new Message(safe,m.getSender(),m.getReceiver(),m.getType(),m.getBallot(),m.getBallot(),null);
 			n.setVoteCount(m.getVoteCount()+1);
 			ring.getNetwork().send(n);
 		}else if(m.getType() == MessageType.Trim){
 			highest_online_instance = m.getInstance()+1;
 			if(!recovered){ // recover only what is available
 				delivered_instance = highest_online_instance == 0 ? highest_online_instance : highest_online_instance-1;
+				delivery.setBase(delivered_instance+1);
 				recovered = true;
 			}
 			logger.debug("Learner notified last highest_online_instance: " + highest_online_instance);
+			scheduleRelearn();
 		}else{
 			if(learned.get(m.getValue().getID()) == null){
 				learned.put(m.getValue().getID(),m.getValue());
@@ -241,15 +247,256 @@ public class LearnerRole extends Role implements Learner {
 		}		
 	}
 	
+	/**
+	 * Re-request missing decisions after relearn_time if a gap is
+	 * not filled (cancelled when all instances are delivered)
+	 */
+	private void scheduleRelearn(){
+		if(delivery.isEmpty()){
+			if(relearn != null){
+				relearn.cancel();
+				relearn = null;
+			}
+		}else if(relearn == null && !terminate){
+			relearn = timer.schedule(new Relearner(),relearn_time);
+		}
+	}
+	
+	/**
+	 * Runs on the shared TimerWheel thread; only wakes up the learner
+	 * thread, which sends the Relearns (the network receive is blocking)
+	 */
+	private class Relearner implements Runnable {
+
+		@Override
+		public void run() {
+			relearn_signal.release();
+		}
+	}
+	
+	/**
+	 * Re-request the missing decisions by the ring (or a catch-up stream)
+	 */
+	private void relearnMissing(){
+		List<Long> missing = new ArrayList<Long>();
+		synchronized(this){
+			relearn = null;
+			if(delivery.isEmpty() || (!recovered && recovery)){
+				return; // re-scheduled by the next decision or trim
+			}
+			for(long i : delivery.getMissing()){
+				if(highest_online_instance == 0 || i >= highest_online_instance){
+					missing.add(i);
+				}else{
+					recovered = false;
+				}
+			}
+			if(catchup_thread != null){
+				missing.clear(); // the stream will fill the gaps
+			}else if(catchup && missing.size() > relearn_range && missing.get(0) != catchup_stalled){
+				catchup_thread = new Thread(new CatchUpClient(ring,LearnerRole.this,missing.get(0),missing.get(missing.size()-1)));
+				catchup_thread.setName("CatchUpClient");
+				catchup_thread.start();
+				logger.info("Learner catch-up of " + missing.size() + " instances from " + missing.get(0));
+				missing.clear();
+			}
+			scheduleRelearn();
+		}
+		int n = 0;
+		for(int i=0;i<missing.size();i=i+n){ // outside the lock; the network delivers to this learner
+			long from = missing.get(i);
+			n = 1;
+			while(n < relearn_range && i+n < missing.size() && missing.get(i+n) == from+n){
+				n++;
+			}
+			Message m = new Message(from,ring.getNodeID(),PaxosRole.Acceptor,MessageType.Relearn,0,0,new Value("",Util.intToByte(n)));
+			logger.warn("Learner re-request missing instance " + from + (n > 1 ? "-" + (from+n-1) : ""));
+			ring.getNetwork().receive(m);
+		}
+	}
+
+	/**
+	 * Hand an ordered decision to the Unpacker; an interrupt does not drop
+	 * the decision (it is set again after the decision is staged)
+	 * 
+	 * @param de
+	 */
+	private void stage(Decision de){
+		boolean interrupted = false;
+		while(true){
+			try {
+				staged.put(de);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Hand a decision to the application (waits if the queue is full)
+	 * 
+	 * @param d
+	 */
+	private void enqueue(Decision d){
+		try {
+			values.put(d);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * The catch-up stream ended; relearn what is still missing (by the
+	 * ring if the gap still starts where the stream stopped)
+	 * 
+	 * @param next the first instance not received
+	 */
+	synchronized void catchUpDone(long next){
+		catchup_thread = null;
+		catchup_stalled = next;
+		logger.debug("Learner catch-up ended at instance " + next + " (" + delivery + ")");
+		scheduleRelearn();
+	}
+
+	/**
+	 * Hand an ordered decision to the application: by deliver() if no
+	 * decision is staged, else by the Unpacker (never both at once)
+	 * 
+	 * @param de
+	 */
+	private void deliverValue(Decision de){
+		if(de.getValue().isBatch()){
+			batch_count.incrementAndGet();
+			int n = unbatch(de,de.getValue(),0);
+			try {
+				values.putAll(entries,n); // the batch as one unit
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			Arrays.fill(entries,0,n,null);
+		}else if(!de.getValue().isFill()){ // the empty skip of a coordinator shard is not delivered
+			deliver_count.incrementAndGet();
+			if(delivered.add(de.getValue().getID())){
+				enqueue(de);
+			}
+		}
+		if(de.getValue().getSkip() > 0 && !de.getValue().isSkip()){ // piggybacked skip (after the value, also if the value was a duplicate)
+			enqueue(new Decision(de.getRing(),de.getInstance(),de.getBallot(),Value.skip("SKIP:" + de.getRing() + ":" + de.getInstance(),de.getValue().getSkip())));
+		}
+	}
+
+	/**
+	 * @param de
+	 * @param batch
+	 * @param n entries used
+	 * @return entries used (the not yet delivered values of the batch)
+	 */
+	private int unbatch(Decision de,Value batch,int n){
+		ByteBuffer buffer = ByteBuffer.wrap(batch.getValue());
+		while(buffer.remaining() > 0){
+			try {
+				Message m = Message.fromBuffer(buffer);
+				if(m.getValue().isBatch()){ // proposer batch in a coordinator pack
+					n = unbatch(de,m.getValue(),n);
+					continue;
+				}
+				deliver_count.incrementAndGet();
+				if(delivered.add(m.getValue().getID())){
+					if(n == entries.length){
+						entries = Arrays.copyOf(entries,n*2);
+					}
+					// decision from a batch will contain same instance number for all entries !!!
+					entries[n++] = new Decision(de.getRing(),de.getInstance(),de.getBallot(),m.getValue());
+				}
+			} catch (Exception e) {
+				logger.error("Learner could not de-serialize batch message!" + e);
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Unpacks the staged decisions outside of the learner lock, so a large
+	 * batch does not hold up the network thread
+	 */
+	private class Unpacker implements Runnable {
+
+		@Override
+		public void run() {
+			Decision[] b = new Decision[256];
+			while(!terminate){
+				try {
+					int n = staged.drain(b,100,TimeUnit.MILLISECONDS);
+					for(int i=0;i<n;i++){
+						deliverValue(b[i]);
+						b[i] = null;
+						staged_count.decrementAndGet(); // after the decision is handed over
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param pack a coordinator pack in list form
+	 * @return the pack in batch form or an empty value if a packed value was not learned
+	 */
+	private Value unpack(Value pack){
+		List<String> packed = ValuePack.getIDs(pack);
+		List<Value> v = new ArrayList<Value>(packed.size());
+		for(String ID : packed){
+			Value p = learned.get(ID);
+			if(p == null || p.getValue().length == 0){
+				return new Value(pack.getID(),new byte[0]); // re-learn from the acceptors
+			}
+			v.add(p);
+		}
+		for(String ID : packed){
+			learned.remove(ID);
+		}
+		return ValuePack.toBatch(pack.getID(),v);
+	}
+
 	@Override
 	public BlockingQueue<Decision> getDecisions(){
 		return values;
 	}
-	
+
+	@Override
+	public int getDecisions(Decision[] decisions, long timeout, TimeUnit unit) throws InterruptedException {
+		return values.drain(decisions,timeout,unit);
+	}
+
+	@Override
+	public void setDecisionHandler(DecisionHandler handler, boolean direct){
+		values.setHandler(handler,direct);
+	}
+
+	/**
+	 * @return the delivery queue (used by the ElasticLearnerRole merge)
+	 */
+	DecisionQueue getDecisionQueue(){
+		return values;
+	}
+
 	public Map<String, Value> getLearned(){
 		return Collections.unmodifiableMap(learned);
 	}
 	
+	/**
+	 * @return the at most once filter of the delivered value IDs
+	 */
+	public DuplicateFilter getDuplicateFilter(){
+		return delivered;
+	}
+	
 	@Override
 	public void setSafeInstance(Integer ring,Long instance){
 		if(instance <= delivered_instance){
@@ -259,22 +506,11 @@ public class LearnerRole extends Role implements Learner {
 		}
 	}
 	
-	public void close(){
+	public synchronized void close(){
 		terminate = true;
-	}
-	
-	private int findPos(long instance) {
-		int pos = 0;
-		Iterator<Decision> i = delivery.iterator();
-		while(i.hasNext()){
-			Decision d = i.next();
-			if(instance == d.getInstance().longValue()){
-				return -1;
-			}else if(instance < d.getInstance().longValue()){
-				return pos;
-			}
-			pos++;
+		if(relearn != null){
+			relearn.cancel();
+			relearn = null;
 		}
-		return pos;
 	}
 }
@@ -54,13 +54,13 @@ public class LearnerStatsWriter implements Runnable {
 	public void run() {
 		boolean run = logger.isInfoEnabled();
 		while(run){
-			if(start_time < 0 && learner.deliver_count > 0){
+			if(start_time < 0 && learner.deliver_count.get() > 0){
 				start_time = System.nanoTime();
 				logger.debug("LearnerStatsWriter set start time.");
 			}
 			try {
 				long time = System.nanoTime();
-				long deliver_count = learner.deliver_count - last_deliver_count;
+				long deliver_count = learner.deliver_count.get() - last_deliver_count;
 				long deliver_bytes = learner.deliver_bytes - last_deliver_bytes;
 
 				float t = (float)(time-last_time)/(1000*1000*1000);
@@ -69,7 +69,7 @@ public class LearnerStatsWriter implements Runnable {
 				float t2 = (float)(time-start_time)/(1000*1000*1000);
 				float deliver_bw = (float)8*(learner.deliver_bytes/t2)/1024/1024; // Mbit/s
 				
-				logger.info(String.format("Learner %d delivered %.1f values/s %.2f Mbit/s (avg: %.2f Mbit/s) (wait: %d) (count: %d) (batch_count: %d)",ringID,deliver_count/t,deliver_bwm,deliver_bw,learner.getDecisions().size(),learner.deliver_count,learner.batch_count));
+				logger.info(String.format("Learner %d delivered %.1f values/s %.2f Mbit/s (avg: %.2f Mbit/s) (wait: %d) (count: %d) (batch_count: %d) (dedup: %d)",ringID,deliver_count/t,deliver_bwm,deliver_bw,learner.getDecisions().size(),learner.deliver_count.get(),learner.batch_count.get(),learner.getDuplicateFilter().size()));
 				
 				last_deliver_count += deliver_count;
 				last_deliver_bytes += deliver_bytes;
@@ -25,11 +25,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
 import ch.usi.da.paxos.api.ConfigKey;
+import ch.usi.da.paxos.api.DecisionHandler;
 import ch.usi.da.paxos.api.Learner;
 import ch.usi.da.paxos.api.PaxosRole;
 import ch.usi.da.paxos.storage.Decision;
@@ -57,11 +58,11 @@ public class MultiLearnerRole extends Role implements Learner {
 	
 	private final int maxRing = 20;
 	
-	private final BlockingQueue<Decision> values = new LinkedBlockingQueue<Decision>(); 
+	private final DecisionQueue values = new DecisionQueue(); 
 	
 	private final LearnerRole[] learner = new LearnerRole[maxRing];
 	
-	private int M = 1;
+	private final int[] M = new int[maxRing]; // values per round
 		
 	private int deliverRing;
 	
@@ -107,6 +108,11 @@ public class MultiLearnerRole extends Role implements Learner {
 			t.setName(PaxosRole.Learner + "-" + e.getKey());
 			t.start();
 			skip_count[e.getKey()] = 0;
+			M[e.getKey()] = 1;
+			if(ring.getConfiguration().containsKey(ConfigKey.multi_ring_m)){
+				M[e.getKey()] = Math.max(1,Integer.parseInt(ring.getConfiguration().get(ConfigKey.multi_ring_m)));
+				logger.info("MultiRingLearner ring " + e.getKey() + " multi_ring_m: " + M[e.getKey()]);
+			}
 		}
 		int count = 0;
 		while(true){
@@ -119,22 +125,17 @@ public class MultiLearnerRole extends Role implements Learner {
 					Decision d = learner[deliverRing].getDecisions().take();
 					if(d.getValue() != null && d.getValue().isSkip()){
 						// skip message
-						try {
-							long skip = Long.parseLong(new String(d.getValue().getValue()));
-							skip_count[deliverRing] = skip_count[deliverRing] + skip;
-						}catch (NumberFormatException e) {
-							logger.error("MultiRingLearner received incomplete SKIP message! -> " + d,e);
-						}
+						skip_count[deliverRing] = skip_count[deliverRing] + d.getValue().getSkip();
 						if(deliver_skip_messages){
-							values.add(d);
+							values.put(d);
 						}
 					}else{
 						count++;
 						// learning an actual proposed value
-						values.add(d);
+						values.put(d);
 					}
 				}
-				if(count >= M){
+				if(count >= M[deliverRing]){
 					count = 0;
 					deliverRing = getRingSuccessor(deliverRing);
 				}
@@ -159,6 +160,16 @@ public class MultiLearnerRole extends Role implements Learner {
 		return values;
 	}
 
+	@Override
+	public int getDecisions(Decision[] decisions, long timeout, TimeUnit unit) throws InterruptedException {
+		return values.drain(decisions,timeout,unit);
+	}
+
+	@Override
+	public void setDecisionHandler(DecisionHandler handler, boolean direct){
+		values.setHandler(handler,direct);
+	}
+
 	public void setSafeInstance(Integer ring, Long instance) {
 		learner[ring].setSafeInstance(ring,instance);
 	}
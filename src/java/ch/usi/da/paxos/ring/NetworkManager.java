@@ -165,7 +165,11 @@ public class NetworkManager {
 		
 		// network forwarding
 		if(m.getType() == MessageType.Relearn){
-			if(leader == null){
+			if(m.getReceiver() == PaxosRole.Acceptor){
+				if(acceptor == null){ // network -> until the first acceptor
+					send(m);
+				}
+			}else if(leader == null || !ring.isInstanceCoordinator(m.getInstance())){ // network -> until the coordinator of the instance
 				send(m);
 			}
 		}else if(m.getType() == MessageType.Value){
@@ -183,7 +187,7 @@ public class NetworkManager {
 			}
 		}else if(m.getType() == MessageType.Phase1 || m.getType() == MessageType.Phase1Range){
 			if(m.getReceiver() == PaxosRole.Leader){
-				if(leader == null){
+				if(leader == null || (m.getSender() != ring.getNodeID() && ring.getRing().contains(m.getSender()))){ // network -> until the sending coordinator
 					send(m);
 				}
 			}else if(m.getReceiver() == PaxosRole.Acceptor){
@@ -199,21 +203,29 @@ public class NetworkManager {
 			if(acceptor == null && ring.getNodeID() != ring.getCoordinatorID()){ // network -> until coordinator
 				send(m);
 			}				
+		}else if(m.getType() == MessageType.ValueRequest){
+			if(acceptor == null && ring.getRingSuccessor(ring.getNodeID()) != m.getSender()){ // acceptors forward themselves
+				send(m);
+			}
 		}
 
 		// local delivery
 		if(m.getType() == MessageType.Relearn){
-			if(leader != null){
+			if(m.getReceiver() == PaxosRole.Acceptor){
+				if(acceptor != null){
+					acceptor.deliver(ring,m);
+				}
+			}else if(leader != null && ring.isInstanceCoordinator(m.getInstance())){
 				leader.deliver(ring,m);
 			}
 		}else if(m.getType() == MessageType.Value){
-			if(learner != null){
+			if(learner != null && m.getReceiver() != PaxosRole.Acceptor){ // values answering a ValueRequest are only for the acceptors (the learners would never remove them)
 				learner.deliver(ring,m);
 			}
 			if(acceptor != null){
 				acceptor.deliver(ring,m);
 			}
-			if(leader != null){
+			if(leader != null && m.getReceiver() == PaxosRole.Leader){ // not for values answering a ValueRequest
 				leader.deliver(ring,m);
 			}
 		}else if(m.getType() == MessageType.Phase2){
@@ -247,7 +259,7 @@ public class NetworkManager {
 				}
 			}
 		}else if(m.getType() == MessageType.Safe){
-			if(leader != null){
+			if(leader != null && ring.isNodeCoordinator()){ // the other shards don't trim
 				leader.deliver(ring,m);
 			}else if(learner != null){
 				learner.deliver(ring,m);
@@ -256,11 +268,18 @@ public class NetworkManager {
 			if(learner != null){
 				learner.deliver(ring,m);
 			}
-			if(leader != null){
+			if(leader != null && ring.isNodeCoordinator()){
 				leader.deliver(ring,m);
 			}else if(acceptor != null){
 				acceptor.deliver(ring,m);
 			}
+		}else if(m.getType() == MessageType.ValueRequest){
+			if(proposer != null){
+				proposer.deliver(ring,m);
+			}
+			if(acceptor != null){
+				acceptor.deliver(ring,m);
+			}
 		}
 	}
 	
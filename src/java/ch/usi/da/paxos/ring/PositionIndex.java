@@ -0,0 +1,199 @@
+package ch.usi.da.paxos.ring;
+/*
+ * Copyright (c) 2015 Università della Svizzera italiana (USI)
+ *
+ * This file is part of URingPaxos.
+ *
+ * URingPaxos is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * URingPaxos is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Name: PositionIndex<br>
+ * Description: <br>
+ *
+ * Merge position (value count before the instance) of the most recent
+ * instances of one ring in a memory-mapped file: slot instance & mask
+ * holds the instance (long) and the value count (long).
+ *
+ * The header (ring, M, capacity, the first and the last recorded
+ * instance) is checked when the file is opened; a file of an other ring
+ * or M is cleared. An instance below the first recorded one (the
+ * instances started again) clears the index as well, and instances
+ * above the last recorded one are not answered.
+ *
+ * The file survives a restart of the learner; a slot is overwritten by
+ * the instance one capacity later.
+ *
+ * Creation date: Oct 30, 2015<br>
+ * $Id$
+ *
+ * @author Samuel Benz benz@geoid.ch
+ */
+public class PositionIndex {
+
+	private final static int MAGIC_NUMBER = 0x706f7369; // ASCII for "posi"
+
+	private final static int VERSION = 1;
+
+	private final static int header = 40; // bytes
+
+	private final static int entry = 16; // bytes
+
+	private final File file;
+
+	private final RandomAccessFile raf;
+
+	private final MappedByteBuffer buffer;
+
+	private final int mask;
+
+	private final int ring;
+
+	private final int m;
+
+	private long start = 0; // first recorded instance (0: empty)
+
+	private long last = 0; // last recorded instance
+
+	private final boolean restored;
+
+	/**
+	 * @param file
+	 * @param capacity instances (rounded up to a power of two)
+	 * @param ring the ring ID
+	 * @param m the values per round of the ring
+	 * @throws IOException
+	 */
+	public PositionIndex(File file, int capacity, int ring, int m) throws IOException {
+		int n = 64;
+		while(n < capacity && n < (1 << 26)){
+			n = n << 1;
+		}
+		mask = n-1;
+		this.file = file;
+		this.ring = ring;
+		this.m = m;
+		if(file.getParentFile() != null){
+			file.getParentFile().mkdirs();
+		}
+		raf = new RandomAccessFile(file,"rw");
+		boolean valid = raf.length() == header+(long)n*entry;
+		buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,0,header+(long)n*entry);
+		valid = valid && buffer.getInt(0) == MAGIC_NUMBER && buffer.getInt(4) == VERSION
+				&& buffer.getInt(8) == ring && buffer.getInt(12) == m && buffer.getInt(16) == n;
+		if(valid){
+			start = buffer.getLong(24);
+			last = buffer.getLong(32);
+		}else{
+			clear();
+		}
+		restored = valid && start > 0;
+	}
+
+	private void clear(){
+		for(int p=header;p<buffer.capacity();p=p+8){
+			buffer.putLong(p,0);
+		}
+		start = 0;
+		last = 0;
+		buffer.putInt(0,MAGIC_NUMBER);
+		buffer.putInt(4,VERSION);
+		buffer.putInt(8,ring);
+		buffer.putInt(12,m);
+		buffer.putInt(16,mask+1);
+		buffer.putLong(24,start);
+		buffer.putLong(32,last);
+	}
+
+	/**
+	 * Record the value count of the first decision of an instance; the
+	 * following decisions of the same instance (batch entries, skips)
+	 * are ignored.
+	 *
+	 * @param instance
+	 * @param count the value count before the instance
+	 * @return false if the instance was already recorded
+	 */
+	public synchronized boolean record(long instance, long count){
+		int p = header + (int)(instance & mask)*entry;
+		if(buffer.getLong(p) == instance && instance >= start && start > 0){
+			return false;
+		}
+		if(start == 0 || instance < start){
+			if(start > 0){
+				clear(); // the instances started again
+			}
+			start = instance;
+			buffer.putLong(24,start);
+		}
+		buffer.putLong(p,instance);
+		buffer.putLong(p+8,count);
+		if(instance > last){
+			last = instance;
+			buffer.putLong(32,last);
+		}
+		return true;
+	}
+
+	/**
+	 * @param instance
+	 * @return the value count before the instance or -1 (not in the index)
+	 */
+	public synchronized long get(long instance){
+		int p = header + (int)(instance & mask)*entry;
+		if(instance < 1 || instance < start || instance > last || buffer.getLong(p) != instance){
+			return -1;
+		}
+		return buffer.getLong(p+8);
+	}
+
+	/**
+	 * @return the first recorded instance (0: empty)
+	 */
+	public synchronized long getStart(){
+		return start;
+	}
+
+	/**
+	 * @return true if the positions of an earlier run were loaded
+	 */
+	public boolean isRestored(){
+		return restored;
+	}
+
+	/**
+	 * @return the index file
+	 */
+	public File getFile(){
+		return file;
+	}
+
+	/**
+	 * write the index to the file and close it
+	 */
+	public synchronized void close(){
+		buffer.force();
+		try {
+			raf.close();
+		} catch (IOException e) {
+		}
+	}
+
+}
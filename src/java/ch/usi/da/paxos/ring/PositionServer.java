@@ -0,0 +1,157 @@
+package ch.usi.da.paxos.ring;
+/*
+ * Copyright (c) 2015 Università della Svizzera italiana (USI)
+ *
+ * This file is part of URingPaxos.
+ *
+ * URingPaxos is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * URingPaxos is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Name: PositionServer<br>
+ * Description: <br>
+ *
+ * Answers the merge position of an instance from the PositionIndex of
+ * the ElasticLearnerRole (one server for all rings of the learner).
+ *
+ * Request: ring (int), instance (long)<br>
+ * Response: value count before the instance (long; -1: unknown)<br>
+ * A connection can carry several requests.
+ *
+ * Creation date: Oct 30, 2015<br>
+ * $Id$
+ *
+ * @author Samuel Benz benz@geoid.ch
+ */
+public class PositionServer implements Runnable {
+
+	private final static Logger logger = Logger.getLogger(PositionServer.class);
+
+	public final static int timeout = 1000; // ms
+
+	private final ElasticLearnerRole learner;
+
+	private final ServerSocket server;
+
+	/**
+	 * @param learner
+	 * @param addr the address to bind
+	 * @throws IOException
+	 */
+	public PositionServer(ElasticLearnerRole learner,InetAddress addr) throws IOException {
+		this.learner = learner;
+		server = new ServerSocket(0,50,addr);
+	}
+
+	/**
+	 * @return the local port
+	 */
+	public int getPort(){
+		return server.getLocalPort();
+	}
+
+	@Override
+	public void run() {
+		while(!server.isClosed()){
+			try {
+				Socket s = server.accept();
+				Thread t = new Thread(new Session(s));
+				t.setName("PositionSession");
+				t.start();
+			} catch (IOException e) {
+				if(!server.isClosed()){
+					logger.error("PositionServer accept error",e);
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * stop the server
+	 */
+	public void close(){
+		try {
+			server.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * @param addr a PositionServer
+	 * @param ring
+	 * @param instance
+	 * @return the value count before the instance (-1: unknown)
+	 * @throws IOException
+	 */
+	public static long request(InetSocketAddress addr,int ring,long instance) throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(addr,timeout);
+			socket.setSoTimeout(timeout);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeInt(ring);
+			out.writeLong(instance);
+			out.flush();
+			return new DataInputStream(socket.getInputStream()).readLong();
+		} finally {
+			socket.close();
+		}
+	}
+
+	private class Session implements Runnable {
+
+		private final Socket socket;
+
+		public Session(Socket socket){
+			this.socket = socket;
+		}
+
+		@Override
+		public void run() {
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				while(true){
+					int ring = in.readInt();
+					long instance = in.readLong();
+					out.writeLong(learner.getPosition(ring,instance));
+					out.flush();
+				}
+			} catch (EOFException e) {
+			} catch (IOException e) {
+				logger.warn("PositionServer session " + socket.getRemoteSocketAddress() + " closed: " + e);
+			} finally {
+				try {
+					socket.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+}
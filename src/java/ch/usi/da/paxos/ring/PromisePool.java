@@ -0,0 +1,150 @@
+package ch.usi.da.paxos.ring;
+/*
+ * Copyright (c) 2015 Università della Svizzera italiana (USI)
+ *
+ * This file is part of URingPaxos.
+ *
+ * URingPaxos is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * URingPaxos is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.usi.da.paxos.storage.Promise;
+
+/**
+ * Name: PromisePool<br>
+ * Description: <br>
+ *
+ * Lock-free pool of reserved (phase 1 promised) instances at the coordinator.
+ *
+ * Instances are kept as ranges [start,end) with a ballot; a claim is an
+ * atomic increment in the oldest range. With more than one coordinator
+ * per ring a range holds every step-th instance only.
+ *
+ * Creation date: Oct 22, 2015<br>
+ * $Id$
+ *
+ * @author Samuel Benz benz@geoid.ch
+ */
+public class PromisePool {
+
+	private final Queue<Range> ranges = new ConcurrentLinkedQueue<Range>();
+
+	private final AtomicLong size = new AtomicLong(0);
+
+	private final AtomicLong claimed = new AtomicLong(0);
+
+	private final int step;
+
+	public PromisePool(){
+		this(1);
+	}
+
+	/**
+	 * @param step distance of the instances in a range
+	 */
+	public PromisePool(int step){
+		this.step = Math.max(1,step);
+	}
+
+	/**
+	 * @param start first instance (inclusive)
+	 * @param end last instance (exclusive)
+	 * @param ballot the promised ballot
+	 */
+	public void add(long start, long end, int ballot){
+		if(end > start){
+			ranges.add(new Range(start,end,ballot));
+			size.addAndGet((end-start+step-1)/step);
+		}
+	}
+
+	/**
+	 * Never blocks
+	 *
+	 * @return a promise or null if no instance is reserved
+	 */
+	public Promise claim(){
+		Range r;
+		while((r = ranges.peek()) != null){
+			long i = r.next.getAndAdd(step);
+			if(i < r.end){
+				size.decrementAndGet();
+				claimed.incrementAndGet();
+				return new Promise(i,r.ballot);
+			}
+			ranges.remove(r); // exhausted
+		}
+		return null;
+	}
+
+	/**
+	 * Never blocks
+	 *
+	 * @param below
+	 * @return a promise for an instance lower than below or null
+	 */
+	public Promise claim(long below){
+		Range r;
+		while((r = ranges.peek()) != null){
+			long i = r.next.get();
+			if(i >= r.end){
+				ranges.remove(r); // exhausted
+			}else if(i >= below){
+				return null;
+			}else if(r.next.compareAndSet(i,i+step)){
+				size.decrementAndGet();
+				claimed.incrementAndGet();
+				return new Promise(i,r.ballot);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the number of reserved instances
+	 */
+	public long size(){
+		return size.get();
+	}
+
+	/**
+	 * @return the number of claimed instances since start
+	 */
+	public long getClaimed(){
+		return claimed.get();
+	}
+
+	public String toString(){
+		return "PromisePool(instances:" + size() + " ranges:" + ranges.size() + ")";
+	}
+
+	private static class Range {
+
+		private final long end;
+
+		private final int ballot;
+
+		private final AtomicLong next;
+
+		public Range(long start, long end, int ballot){
+			this.end = end;
+			this.ballot = ballot;
+			this.next = new AtomicLong(start);
+		}
+	}
+
+}
@@ -18,21 +18,17 @@ package ch.usi.da.paxos.ring;
  * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import java.util.Iterator;
-import java.util.Map.Entry;
-
 import org.apache.log4j.Logger;
 
-import ch.usi.da.paxos.api.ConfigKey;
-import ch.usi.da.paxos.api.PaxosRole;
-import ch.usi.da.paxos.message.Message;
-import ch.usi.da.paxos.message.MessageType;
 import ch.usi.da.paxos.storage.Proposal;
 
 /**
  * Name: ProposerResender<br>
  * Description: <br>
  * 
+ * Timeout of one proposal (scheduled in the TimerWheel by ProposerRole.send()).
+ * The proposer thread resends it; the send may block (local learner).
+ * 
  * Creation date: Sep 14, 2012<br>
  * $Id$
  * 
@@ -44,38 +40,22 @@ public class ProposerResender implements Runnable {
 	
 	private final ProposerRole proposer;
 	
-	private int resend_time = 3000;
+	private final Proposal proposal;
 	
 	/**
 	 * @param proposer
+	 * @param proposal
 	 */
-	public ProposerResender(ProposerRole proposer) {
+	public ProposerResender(ProposerRole proposer, Proposal proposal) {
 		this.proposer = proposer;
-		if(proposer.getRingManager().getConfiguration().containsKey(ConfigKey.value_resend_time)){
-			resend_time = Integer.parseInt(proposer.getRingManager().getConfiguration().get(ConfigKey.value_resend_time));
-			logger.info("Proposer value_resend_time: " + resend_time);
-		}
+		this.proposal = proposal;
 	}
 
 	@Override
 	public void run() {
-		while(true){
-			try {
-				Thread.sleep(200);
-				long time = System.currentTimeMillis();
-				Iterator<Entry<String, Proposal>> i = proposer.getProposals().entrySet().iterator();
-				while(i.hasNext()){
-					Entry<String, Proposal> e = i.next();
-					if(time-e.getValue().getDate()>resend_time){
-						i.remove();
-						logger.error("Proposer timeout in proposing value: " + e.getValue().getValue());
-						proposer.send(new Message(0,proposer.getRingManager().getNodeID(),PaxosRole.Leader,MessageType.Value,0,0,e.getValue().getValue()));
-					}
-				}
-			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
-				break;				
-			}
+		if(proposer.getProposals().remove(proposal.getValue().getID(),proposal)){ // not decided and not resent
+			logger.error("Proposer timeout in proposing value: " + proposal.getValue());
+			proposer.resend(proposal);
 		}
 	}
 
@@ -39,6 +39,7 @@ import ch.usi.da.paxos.message.Control;
 import ch.usi.da.paxos.message.Message;
 import ch.usi.da.paxos.message.MessageType;
 import ch.usi.da.paxos.message.Value;
+import ch.usi.da.paxos.message.ValuePack;
 import ch.usi.da.paxos.storage.Decision;
 import ch.usi.da.paxos.storage.FutureDecision;
 import ch.usi.da.paxos.storage.Proposal;
@@ -74,6 +75,12 @@ public class ProposerRole extends Role implements Proposer {
 	
 	private final Map<String,Proposal> proposals = new ConcurrentHashMap<String,Proposal>();
 
+	private final TimerWheel timer = TimerWheel.getShared();
+	
+	private int resend_time = 3000;
+
+	private final BlockingQueue<Proposal> resend_queue = new LinkedBlockingQueue<Proposal>(); // timed out (filled on the timer thread)
+
 	private final Map<String,FutureDecision> futures = new ConcurrentHashMap<String,FutureDecision>();
 	
 	private BatchPolicy batcher;
@@ -114,18 +121,8 @@ public class ProposerRole extends Role implements Proposer {
 		}
 		if(ring.getConfiguration().containsKey(ConfigKey.value_size)){
 			String v = ring.getConfiguration().get(ConfigKey.value_size);
-			if(v.toLowerCase().startsWith("int")){
-				value_type = ValueType.INTVALUE;
-			}else if(v.toLowerCase().startsWith("uni")){
-				value_type = ValueType.UNIFORM;
-			}else if(v.toLowerCase().startsWith("nor")){
-				value_type = ValueType.NORMAL;
-			}else if(v.toLowerCase().startsWith("exp")){
-				value_type = ValueType.EXPONENTIAL;
-			}else if(v.toLowerCase().startsWith("zip")){
-				value_type = ValueType.ZIPF;
-			}else{
-				value_type = ValueType.FIX;
+			value_type = ValueType.parse(v);
+			if(value_type == ValueType.FIX){
 				value_size = Integer.parseInt(v);
 				logger.info("Proposer value_size: " + value_size);
 			}
@@ -137,20 +134,39 @@ public class ProposerRole extends Role implements Proposer {
 			value_count = Integer.parseInt(ring.getConfiguration().get(ConfigKey.value_count));
 			logger.info("Proposer value_count: " + value_count);
 		}
+		if(ring.getConfiguration().containsKey(ConfigKey.value_resend_time)){
+			resend_time = Integer.parseInt(ring.getConfiguration().get(ConfigKey.value_resend_time));
+			logger.info("Proposer value_resend_time: " + resend_time);
+		}
 	}
 
 	@Override
 	public void run() {
 		ring.getNetwork().registerCallback(this);
-		Thread t = new Thread(new ProposerResender(this));
-		t.setName("ProposerResender");
-		t.start();
 		if(batcher != null){
 			batcher.setProposer(this);
 			Thread b = new Thread(batcher);
 			b.setName("BatchPolicy");
 			b.start();
 		}
+		while(true){ // resend the timed out proposals
+			try {
+				Proposal p = resend_queue.take();
+				send(new Message(0,ring.getNodeID(),PaxosRole.Leader,MessageType.Value,0,0,p.getValue()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Resend a proposal by the proposer thread
+	 * 
+	 * @param p the timed out proposal
+	 */
+	void resend(Proposal p){
+		resend_queue.add(p);
 	}
 
 	/**
@@ -207,7 +223,9 @@ public class ProposerRole extends Role implements Proposer {
 	 * @param m
 	 */
 	public void send(Message m){
-		proposals.put(m.getValue().getID(),new Proposal(m.getValue()));
+		Proposal p = new Proposal(m.getValue());
+		proposals.put(m.getValue().getID(),p);
+		timer.schedule(new ProposerResender(this,p),resend_time);
 		ring.getNetwork().send(m); // send to all !
 		if(ring.getNetwork().getLearner() != null){
 			ring.getNetwork().getLearner().deliver(ring,m);
@@ -225,29 +243,47 @@ public class ProposerRole extends Role implements Proposer {
 			logger.debug("proposer " + ring.getNodeID() + " received " + m);
 		}*/
 		if(m.getType() == MessageType.Decision){
+			if(m.getValue().isPack()){ // values of different proposers in one instance
+				for(String ID : ValuePack.getIDs(m.getValue())){
+					Proposal p = proposals.remove(ID);
+					if(p != null){
+						decided(fromRing,new Message(m.getInstance(),m.getSender(),m.getReceiver(),m.getType(),m.getBallot(),m.getValueBallot(),p.getValue()),p.getValue());
+					}
+				}
+				return;
+			}
 			String ID = m.getValue().getID();
 			if(proposals.containsKey(ID)){
 				Proposal p = proposals.get(ID);
 				Value v = p.getValue();
 				if(m.getValue().equals(v)){ // compared by ID
-					if(v.isBatch()){
-						ByteBuffer buffer = ByteBuffer.wrap(v.getValue());
-						while(buffer.remaining() > 0){
-							try {
-								Message n = Message.fromBuffer(buffer);
-								set_decision(fromRing,n,n.getValue());
-							} catch (Exception e) {
-								logger.error("Proposer could not de-serialize batch message!" + e);
-							}
-						}
-					}else{
-						set_decision(fromRing,m,v);
-					}
+					decided(fromRing,m,v);
 				}else{
 					logger.error("Proposer received Decision with different values for same instance " + m.getInstance() + "!");
 				}
 				proposals.remove(ID);
 			}
+		}else if(m.getType() == MessageType.ValueRequest){
+			Proposal p = proposals.get(m.getValue().getID());
+			if(p != null){
+				ring.getNetwork().send(new Message(m.getInstance(),ring.getNodeID(),PaxosRole.Acceptor,MessageType.Value,0,0,p.getValue()));
+			}
+		}
+	}
+
+	private void decided(RingManager fromRing,Message m,Value v){
+		if(v.isBatch()){
+			ByteBuffer buffer = ByteBuffer.wrap(v.getValue());
+			while(buffer.remaining() > 0){
+				try {
+					Message n = Message.fromBuffer(buffer);
+					set_decision(fromRing,n,n.getValue());
+				} catch (Exception e) {
+					logger.error("Proposer could not de-serialize batch message!" + e);
+				}
+			}
+		}else{
+			set_decision(fromRing,m,v);
 		}
 	}
 
@@ -304,28 +340,7 @@ public class ProposerRole extends Role implements Proposer {
 	}
 	
 	public byte[] getTestValue(){
-		int v = value_size;
-		switch(value_type){
-		case INTVALUE: // use for correctness test
-			return Integer.toString(random.nextInt(0,Integer.MAX_VALUE)).getBytes();
-		case NORMAL: 
-			v = (int)random.nextGaussian(16000,14000); // tune this parameter to something meaningful
-			break;
-		case EXPONENTIAL:
-			v = (int)random.nextExponential(16000); 
-			break;
-		case ZIPF:
-			v = random.nextZipf(60000,0.5); // Extremely slow?
-			break;
-		default:
-			v = value_size;
-			break;
-		}
-		if(v > 0 && v <= 60000){
-			return new byte[v];
-		}else{
-			return new byte[value_size];
-		}
+		return value_type.getValue(random,value_size);
 	}
 
 	public int getValueCount(){
@@ -0,0 +1,230 @@
+package ch.usi.da.paxos.ring;
+/*
+ * Copyright (c) 2015 Università della Svizzera italiana (USI)
+ *
+ * This file is part of URingPaxos.
+ *
+ * URingPaxos is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * URingPaxos is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.usi.da.paxos.storage.Decision;
+
+/**
+ * Name: ReorderWindow<br>
+ * Description: <br>
+ *
+ * Decisions which arrived before their predecessors, in a circular array
+ * indexed by instance (slot: instance & mask) with a bitmap of the
+ * present slots. The window starts at the next instance to deliver.
+ *
+ * add() and poll() are O(1); the array doubles up to max slots and
+ * decisions beyond are dropped (they are re-learned later).
+ *
+ * Not thread-safe.
+ *
+ * Creation date: Oct 26, 2015<br>
+ * $Id$
+ *
+ * @author Samuel Benz benz@geoid.ch
+ */
+public class ReorderWindow {
+
+	private final int max;
+
+	private Decision[] slots;
+
+	private long[] present;
+
+	private int mask;
+
+	private long base = 1; // next instance to deliver
+
+	private long last = 0; // highest instance in the window
+
+	private int count = 0;
+
+	/**
+	 * @param capacity initial slots (rounded up to a power of two)
+	 * @param max largest number of slots
+	 */
+	public ReorderWindow(int capacity, int max){
+		this.max = size(max);
+		init(Math.min(size(capacity),this.max));
+	}
+
+	private static int size(int n){
+		int s = 64;
+		while(s < n && s < (1 << 30)){
+			s = s << 1;
+		}
+		return s;
+	}
+
+	private void init(int size){
+		slots = new Decision[size];
+		present = new long[size >>> 6];
+		mask = size-1;
+	}
+
+	private boolean isPresent(int slot){
+		return (present[slot >>> 6] & (1L << slot)) != 0;
+	}
+
+	/**
+	 * @param d
+	 * @return false if the instance was delivered, is already in the window or too far ahead
+	 */
+	public boolean add(Decision d){
+		long instance = d.getInstance();
+		long offset = instance-base;
+		if(offset < 0){
+			return false;
+		}
+		if(offset >= slots.length && !grow(offset)){
+			return false;
+		}
+		int slot = (int)(instance & mask);
+		if(isPresent(slot)){
+			return false;
+		}
+		slots[slot] = d;
+		present[slot >>> 6] |= 1L << slot;
+		count++;
+		if(instance > last){
+			last = instance;
+		}
+		return true;
+	}
+
+	private boolean grow(long offset){
+		if(offset >= max){
+			return false;
+		}
+		Decision[] old = slots;
+		int size = old.length;
+		while(size <= offset){
+			size = size << 1;
+		}
+		init(size);
+		for(Decision d : old){
+			if(d != null){
+				int slot = (int)(d.getInstance() & mask);
+				slots[slot] = d;
+				present[slot >>> 6] |= 1L << slot;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the decision of the next instance or null (not yet arrived)
+	 */
+	public Decision peek(){
+		int slot = (int)(base & mask);
+		return isPresent(slot) ? slots[slot] : null;
+	}
+
+	/**
+	 * @return the decision of the next instance or null (not yet arrived)
+	 */
+	public Decision poll(){
+		int slot = (int)(base & mask);
+		if(!isPresent(slot)){
+			return null;
+		}
+		Decision d = slots[slot];
+		slots[slot] = null;
+		present[slot >>> 6] &= ~(1L << slot);
+		count--;
+		base++;
+		return d;
+	}
+
+	/**
+	 * Move the window (decisions below are discarded)
+	 *
+	 * @param instance the next instance to deliver
+	 */
+	public void setBase(long instance){
+		if(count == 0){
+			base = instance;
+			return;
+		}
+		List<Decision> l = new ArrayList<Decision>(count);
+		for(Decision d : slots){
+			if(d != null && d.getInstance() >= instance){
+				l.add(d);
+			}
+		}
+		init(slots.length);
+		base = instance;
+		last = 0;
+		count = 0;
+		for(Decision d : l){
+			add(d);
+		}
+	}
+
+	/**
+	 * @return the next instance to deliver
+	 */
+	public long getBase(){
+		return base;
+	}
+
+	/**
+	 * @return the highest instance in the window (0: empty)
+	 */
+	public long getLast(){
+		return count > 0 ? last : 0;
+	}
+
+	/**
+	 * @return the missing instances between the next instance and the highest one
+	 */
+	public List<Long> getMissing(){
+		List<Long> l = new ArrayList<Long>();
+		if(count == 0){
+			return l;
+		}
+		for(long i=base;i<last;i++){
+			if(!isPresent((int)(i & mask))){
+				l.add(i);
+			}
+		}
+		return l;
+	}
+
+	/**
+	 * @return the number of decisions in the window
+	 */
+	public int size(){
+		return count;
+	}
+
+	/**
+	 * @return true if the window is empty
+	 */
+	public boolean isEmpty(){
+		return count == 0;
+	}
+
+	public String toString(){
+		return "ReorderWindow(base:" + base + " last:" + getLast() + " decisions:" + count + " slots:" + slots.length + ")";
+	}
+
+}
@@ -0,0 +1,168 @@
+package ch.usi.da.paxos.ring;
+/*
+ * Copyright (c) 2015 Università della Svizzera italiana (USI)
+ *
+ * This file is part of URingPaxos.
+ *
+ * URingPaxos is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * URingPaxos is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Name: ReservationController<br>
+ * Description: <br>
+ *
+ * Sizes the Phase1 pre-execution window of the coordinator.
+ *
+ * The demand during one reservation round trip is rate * rtt (claimed
+ * instances/ms times the Phase1Range ring round trip in ms). A new range
+ * covers 4 round trips and is requested as soon as less than 2 round trips
+ * are reserved; both bounded by [min,max].
+ *
+ * The reserver thread waits in await() and is woken by signal() when the
+ * reserved instances fall below the low watermark.
+ *
+ * Creation date: Oct 22, 2015<br>
+ * $Id$
+ *
+ * @author Samuel Benz benz@geoid.ch
+ */
+public class ReservationController {
+
+	private final static double alpha = 0.2; // EWMA weight of a new sample
+
+	private final static long sample_time = 50; // ms
+
+	private final int min;
+
+	private final int max;
+
+	private final boolean adaptive;
+
+	private double rate = 0; // instances/ms
+
+	private double rtt = 0; // ms
+
+	private long last_time = System.currentTimeMillis();
+
+	private long last_claimed = 0;
+
+	private volatile int window;
+
+	private volatile int low;
+
+	private final Object lock = new Object();
+
+	private boolean signaled = false;
+
+	/**
+	 * @param min smallest window
+	 * @param max largest window (p1_preexecution_number)
+	 * @param adaptive if false the window is always max
+	 */
+	public ReservationController(int min, int max, boolean adaptive){
+		this.max = Math.max(1,max);
+		this.min = Math.max(1,Math.min(min,this.max));
+		this.adaptive = adaptive;
+		this.window = this.max;
+		this.low = this.max/2;
+	}
+
+	/**
+	 * @param claimed total claimed instances
+	 */
+	public synchronized void sampleRate(long claimed){
+		long time = System.currentTimeMillis();
+		if(time-last_time >= sample_time){
+			double r = (double)(claimed-last_claimed)/(time-last_time);
+			rate = rate == 0 ? r : (1-alpha)*rate + alpha*r;
+			last_time = time;
+			last_claimed = claimed;
+			update();
+		}
+	}
+
+	/**
+	 * @param ms measured reservation round trip
+	 */
+	public synchronized void sampleRTT(long ms){
+		rtt = rtt == 0 ? ms : (1-alpha)*rtt + alpha*ms;
+		update();
+	}
+
+	private void update(){
+		if(adaptive && rtt > 0){
+			double demand = rate * rtt;
+			window = (int)Math.max(min,Math.min(max,Math.ceil(4*demand)));
+			low = (int)Math.max(window/2,Math.min(max,Math.ceil(2*demand)));
+		}
+	}
+
+	/**
+	 * @return size of the next Phase1Range
+	 */
+	public int getWindow(){
+		return window;
+	}
+
+	/**
+	 * @return refill if less instances are reserved
+	 */
+	public int getLowWatermark(){
+		return low;
+	}
+
+	/**
+	 * @return claimed instances/ms
+	 */
+	public synchronized double getRate(){
+		return rate;
+	}
+
+	/**
+	 * @return reservation round trip in ms
+	 */
+	public synchronized double getRTT(){
+		return rtt;
+	}
+
+	/**
+	 * Wake up the reserver
+	 */
+	public void signal(){
+		synchronized(lock){
+			signaled = true;
+			lock.notify();
+		}
+	}
+
+	/**
+	 * Wait for a signal
+	 *
+	 * @param timeout in ms
+	 * @throws InterruptedException
+	 */
+	public void await(long timeout) throws InterruptedException {
+		synchronized(lock){
+			if(!signaled){
+				lock.wait(timeout);
+			}
+			signaled = false;
+		}
+	}
+
+	public String toString(){
+		return String.format("ReservationController(window:%d low:%d rate:%.2f/ms rtt:%.1fms)",window,low,getRate(),getRTT());
+	}
+
+}
@@ -20,6 +20,7 @@ package ch.usi.da.paxos.ring;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -31,6 +32,7 @@ import org.apache.zookeeper.Watcher.Event.EventType;
 import org.apache.zookeeper.ZooKeeper;
 
 import ch.usi.da.paxos.TopologyManager;
+import ch.usi.da.paxos.api.ConfigKey;
 import ch.usi.da.paxos.api.PaxosNode;
 
 
@@ -49,6 +51,15 @@ public class RingManager extends TopologyManager {
 
 	private volatile int last_acceptor = 0;
 
+	/*
+	 * The k lowest acceptors coordinate the instances i mod k (1: one coordinator)
+	 */
+	private int shards = 1;
+
+	private volatile int shard = -1; // coordinated residue of this node (-1: none)
+
+	private final List<Integer> shard_acceptors = new ArrayList<Integer>();
+
 	/**
 	 * @param node
 	 * @param ringID
@@ -106,6 +117,11 @@ public class RingManager extends TopologyManager {
 	protected void getConfig() throws KeeperException, InterruptedException {
 		super.getConfig();
 		
+		if(configuration.containsKey(ConfigKey.coordinator_shards)){
+			shards = Math.max(1,Integer.parseInt(configuration.get(ConfigKey.coordinator_shards)));
+			logger.info("RingManager coordinator_shards: " + shards);
+		}
+
 		// get last_acceptor
 		try {
 			List<String> l = zoo.getChildren(path + "/" + acceptor_path, true);
@@ -138,9 +154,9 @@ public class RingManager extends TopologyManager {
 		}
 	}
 	
-	private void notifyNewCoordinator(){
-		logger.info("RingManger this node is the new coordinator for ring " + topologyID + "!");
-		Thread c = new Thread(new CoordinatorRole(this));
+	private void notifyNewCoordinator(boolean takeover){
+		logger.info("RingManger this node is the new coordinator for ring " + topologyID + (shards > 1 ? " (shard " + shard + "/" + shards + ")" : "") + "!" + (takeover ? " (takeover)" : ""));
+		Thread c = new Thread(new CoordinatorRole(this,takeover));
 		c.setName("Coordinator");
 		c.start();
 	}
@@ -191,6 +207,29 @@ public class RingManager extends TopologyManager {
 	public int getLastAcceptor(){
 		return last_acceptor;
 	}
+
+	/**
+	 * @return the number of coordinators (instance residue classes)
+	 */
+	public int getCoordinatorShards(){
+		return shards;
+	}
+
+	/**
+	 * @return the residue class this node coordinates (-1: none)
+	 */
+	public int getCoordinatorShard(){
+		return shards > 1 ? shard : (isNodeCoordinator() ? 0 : -1);
+	}
+
+	/**
+	 * @param instance
+	 * @return true if this node coordinates the instance
+	 */
+	public boolean isInstanceCoordinator(long instance){
+		int s = getCoordinatorShard();
+		return s >= 0 && instance % shards == s;
+	}
 	
 	@Override
 	public void process(WatchedEvent event) {
@@ -223,8 +262,10 @@ public class RingManager extends TopologyManager {
 					}
 					last_acceptor = max;
 					coordinator = min;
-					if(nodeID == min && old_coordinator != coordinator){
-						notifyNewCoordinator();
+					if(shards > 1){
+						processShards(l);
+					}else if(nodeID == min && old_coordinator != coordinator){
+						notifyNewCoordinator(old_coordinator > 0 && !l.contains(String.valueOf(old_coordinator))); // previous coordinator failed
 					}
 				}
 			}
@@ -234,4 +275,28 @@ public class RingManager extends TopologyManager {
 		}		
 	}
 
+	/**
+	 * Start a coordinator if the residue class of this node changed
+	 * 
+	 * @param l the acceptors
+	 */
+	private void processShards(List<String> l){
+		List<Integer> a = new ArrayList<Integer>();
+		for(String s : l){
+			a.add(Integer.valueOf(s));
+		}
+		Collections.sort(a);
+		int pos = a.indexOf(nodeID);
+		int old_shard = shard;
+		shard = pos >= 0 && pos < shards ? pos : -1;
+		if(shard >= 0 && a.size()-shard < quorum){ // Phase 1/2 of shard j reach the acceptors j..n-1
+			logger.error("RingManager shard " + shard + " can not decide: " + a.size() + " acceptors (coordinator_shards " + shards + " needs quorum_size+" + (shards-1) + ")");
+		}
+		if(shard >= 0 && shard != old_shard){
+			notifyNewCoordinator(!shard_acceptors.isEmpty()); // joins a running ring
+		}
+		shard_acceptors.clear();
+		shard_acceptors.addAll(a);
+	}
+
 }
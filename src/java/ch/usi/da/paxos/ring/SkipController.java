@@ -0,0 +1,130 @@
+package ch.usi.da.paxos.ring;
+/*
+ * Copyright (c) 2015 Università della Svizzera italiana (USI)
+ *
+ * This file is part of URingPaxos.
+ *
+ * URingPaxos is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * URingPaxos is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+
+import ch.usi.da.paxos.TopologyManager;
+
+/**
+ * Name: SkipController<br>
+ * Description: <br>
+ *
+ * Adaptive skip target of a multi-ring coordinator.
+ *
+ * The coordinator publishes its skip clock (value count including skips,
+ * rate of the proposed values, time) in ZooKeeper and reads the clocks of
+ * the other rings. The target is the highest count of all rings,
+ * extrapolated with the rate of the proposed values of that ring (at most
+ * max_extrapolation ms), so an idle ring follows the fastest ring without
+ * a tuned lambda and skips do not feed back into the rates.
+ *
+ * Creation date: Oct 25, 2015<br>
+ * $Id$
+ *
+ * @author Samuel Benz benz@geoid.ch
+ */
+public class SkipController {
+
+	private final static Logger logger = Logger.getLogger(SkipController.class);
+
+	private final static double alpha = 0.2; // EWMA weight of a new sample
+
+	private final static long max_extrapolation = 1000; // ms
+
+	private final TopologyManager ring;
+
+	private final long interval;
+
+	private double rate = 0; // proposed values/ms
+
+	private long last_time = 0;
+
+	private long last_proposed = 0;
+
+	private long target = 0;
+
+	/**
+	 * @param ring
+	 * @param interval publish and read the clocks every interval ms
+	 */
+	public SkipController(TopologyManager ring, long interval){
+		this.ring = ring;
+		this.interval = Math.max(1,interval);
+	}
+
+	/**
+	 * @param count values including skips
+	 * @param skipped skipped values
+	 * @param time now
+	 * @return the value count this ring should have reached
+	 */
+	public synchronized long getTarget(long count, long skipped, long time){
+		if(last_time == 0){
+			last_time = time;
+			last_proposed = count-skipped;
+		}else if(time-last_time >= interval){
+			double r = (double)(count-skipped-last_proposed)/(time-last_time);
+			rate = rate == 0 ? r : (1-alpha)*rate + alpha*r;
+			last_time = time;
+			last_proposed = count-skipped;
+			ring.setSkipClock(encode(count,rate,time));
+			target = count;
+			for(Entry<Integer,byte[]> e : ring.getSkipClocks().entrySet()){
+				if(e.getKey() != ring.getTopologyID() && e.getValue() != null && e.getValue().length >= 24){
+					ByteBuffer b = ByteBuffer.wrap(e.getValue());
+					long c = b.getLong();
+					double r2 = b.getDouble();
+					long t = b.getLong();
+					long extrapolated = c + (long)(r2 * Math.max(0,Math.min(time-t,max_extrapolation)));
+					if(extrapolated > target){
+						target = extrapolated;
+					}
+				}
+			}
+			if(logger.isTraceEnabled()){
+				logger.trace(this);
+			}
+		}
+		return target;
+	}
+
+	/**
+	 * @return the rate of the proposed values (values/ms)
+	 */
+	public synchronized double getRate(){
+		return rate;
+	}
+
+	private static byte[] encode(long count, double rate, long time){
+		ByteBuffer b = ByteBuffer.allocate(24);
+		b.putLong(count);
+		b.putDouble(rate);
+		b.putLong(time);
+		return b.array();
+	}
+
+	public String toString(){
+		return String.format("SkipController(target:%d rate:%.2f/ms)",target,getRate());
+	}
+
+}
@@ -0,0 +1,189 @@
+package ch.usi.da.paxos.ring;
+/*
+ * Copyright (c) 2015 Università della Svizzera italiana (USI)
+ *
+ * This file is part of URingPaxos.
+ *
+ * URingPaxos is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * URingPaxos is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Name: TimerWheel<br>
+ * Description: <br>
+ *
+ * Hashed timer wheel for the Paxos timeouts (Phase1 resend, value resend,
+ * learner relearn).
+ *
+ * schedule() and cancel() are O(1) and never block; the wheel thread
+ * moves new timeouts into their bucket and expires one bucket per tick.
+ * The tasks run on the wheel thread and must not block.
+ *
+ * Creation date: Oct 24, 2015<br>
+ * $Id$
+ *
+ * @author Samuel Benz benz@geoid.ch
+ */
+public class TimerWheel implements Runnable {
+
+	private final static Logger logger = Logger.getLogger(TimerWheel.class);
+
+	private static TimerWheel shared = null;
+
+	private final long tick; // ms
+
+	private final int mask;
+
+	private final LinkedList<Timeout>[] wheel;
+
+	private final Queue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+
+	private final long start = System.currentTimeMillis();
+
+	private long ticks = 0;
+
+	/**
+	 * @param tick duration of a tick in ms
+	 * @param size number of buckets (rounded up to a power of two)
+	 */
+	@SuppressWarnings("unchecked")
+	public TimerWheel(long tick, int size){
+		this.tick = Math.max(1,tick);
+		int n = 1;
+		while(n < size){
+			n = n << 1;
+		}
+		mask = n-1;
+		wheel = new LinkedList[n];
+		for(int i=0;i<n;i++){
+			wheel[i] = new LinkedList<Timeout>();
+		}
+	}
+
+	/**
+	 * @return the timer wheel shared by all roles (10ms ticks)
+	 */
+	public static synchronized TimerWheel getShared(){
+		if(shared == null){
+			shared = new TimerWheel(10,512);
+			Thread t = new Thread(shared);
+			t.setName("TimerWheel");
+			t.setDaemon(true);
+			t.start();
+		}
+		return shared;
+	}
+
+	/**
+	 * @param task the task to run
+	 * @param delay in ms
+	 * @return the timeout (to cancel)
+	 */
+	public Timeout schedule(Runnable task, long delay){
+		Timeout t = new Timeout(task,System.currentTimeMillis()+delay);
+		added.add(t);
+		return t;
+	}
+
+	@Override
+	public void run() {
+		while(true){
+			try {
+				long deadline = start + (ticks+1)*tick;
+				long sleep = deadline - System.currentTimeMillis();
+				if(sleep > 0){
+					Thread.sleep(sleep);
+				}
+				transfer();
+				expire(wheel[(int)(ticks & mask)]);
+				ticks++;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+	}
+
+	private void transfer(){
+		Timeout t;
+		while((t = added.poll()) != null){
+			if(t.cancelled){
+				continue;
+			}
+			long due = Math.max(ticks,(t.deadline-start)/tick); // not in the past
+			t.rounds = (due-ticks)/wheel.length;
+			wheel[(int)(due & mask)].add(t);
+		}
+	}
+
+	private void expire(LinkedList<Timeout> bucket){
+		Iterator<Timeout> i = bucket.iterator();
+		while(i.hasNext()){
+			Timeout t = i.next();
+			if(t.cancelled){
+				i.remove();
+			}else if(t.rounds <= 0){
+				i.remove();
+				try {
+					t.task.run();
+				} catch (Exception e) {
+					logger.error("TimerWheel task error!",e);
+				}
+			}else{
+				t.rounds--;
+			}
+		}
+	}
+
+	/**
+	 * Name: Timeout<br>
+	 * Description: <br>
+	 */
+	public static class Timeout {
+
+		private final Runnable task;
+
+		private final long deadline;
+
+		private long rounds = 0;
+
+		private volatile boolean cancelled = false;
+
+		private Timeout(Runnable task, long deadline){
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * The task will not run (removed at its next tick)
+		 */
+		public void cancel(){
+			cancelled = true;
+		}
+
+		/**
+		 * @return true if cancelled
+		 */
+		public boolean isCancelled(){
+			return cancelled;
+		}
+	}
+
+}
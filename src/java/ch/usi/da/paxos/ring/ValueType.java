@@ -1,5 +1,7 @@
 package ch.usi.da.paxos.ring;
 
+import org.apache.commons.math3.random.RandomDataGenerator;
+
 public enum ValueType {
 	FIX,
 	UNIFORM,
@@ -7,4 +9,53 @@ public enum ValueType {
 	EXPONENTIAL,
 	ZIPF,
 	INTVALUE;
+	
+	/**
+	 * @param random
+	 * @param value_size the fixed (and fallback) size
+	 * @return a test value of this distribution
+	 */
+	public byte[] getValue(RandomDataGenerator random, int value_size){
+		int v = value_size;
+		switch(this){
+		case INTVALUE: // use for correctness test
+			return Integer.toString(random.nextInt(0,Integer.MAX_VALUE)).getBytes();
+		case NORMAL: 
+			v = (int)random.nextGaussian(16000,14000); // tune this parameter to something meaningful
+			break;
+		case EXPONENTIAL:
+			v = (int)random.nextExponential(16000); 
+			break;
+		case ZIPF:
+			v = random.nextZipf(60000,0.5); // Extremely slow?
+			break;
+		default:
+			v = value_size;
+			break;
+		}
+		if(v > 0 && v <= 60000){
+			return new byte[v];
+		}else{
+			return new byte[value_size];
+		}
+	}
+
+	/**
+	 * @param v a value_size config string (e.g. "zipf" or "32768")
+	 * @return the value type
+	 */
+	public static ValueType parse(String v){
+		if(v.toLowerCase().startsWith("int")){
+			return ValueType.INTVALUE;
+		}else if(v.toLowerCase().startsWith("uni")){
+			return ValueType.UNIFORM;
+		}else if(v.toLowerCase().startsWith("nor")){
+			return ValueType.NORMAL;
+		}else if(v.toLowerCase().startsWith("exp")){
+			return ValueType.EXPONENTIAL;
+		}else if(v.toLowerCase().startsWith("zip")){
+			return ValueType.ZIPF;
+		}
+		return ValueType.FIX;
+	}
 }
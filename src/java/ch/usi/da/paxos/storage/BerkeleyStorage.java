@@ -141,10 +141,27 @@ public class BerkeleyStorage implements StableStorage {
         }
 	}
 
+	@Override
+	public synchronized void putBallotRange(Long from, Long to, int ballot) {
+		Transaction t = null;
+		if(ballotdb.getConfig().getTransactional()){
+			t = env.beginTransaction(null,null); // one commit (sync) for the whole range
+		}
+		ballotBinding.objectToEntry(ballot,ballot_data);
+		for(long i=from;i<to;i++){
+			keyBinding.objectToEntry(i,key);
+			ballotdb.put(t,key,ballot_data);
+		}
+		if(t != null){ t.commit(); }
+		if(logger.isDebugEnabled()){
+			logger.debug("DB put ballot " + ballot + " for instance " + from + "-" + (to-1));
+		}
+	}
+
 	@Override
 	public synchronized int getBallot(Long instance) {
 	    keyBinding.objectToEntry(instance,key);
-	    Integer ballot = null;
+	    Integer ballot = 0;
 	    OperationStatus status = ballotdb.get(null,key,ballot_data,LockMode.DEFAULT);
 	    if (status == OperationStatus.SUCCESS) {
 	        ballot = ballotBinding.entryToObject(ballot_data);
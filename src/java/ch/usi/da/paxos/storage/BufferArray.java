@@ -18,7 +18,9 @@ package ch.usi.da.paxos.storage;
  * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -39,7 +41,7 @@ import ch.usi.da.paxos.message.MessageType;
  * 
  * @author Samuel Benz benz@geoid.ch
  */
-public class BufferArray implements StableStorage {
+public class BufferArray implements StableStorage, Snapshotable {
 
 	private final static Logger logger = Logger.getLogger(StableStorage.class);
 	
@@ -67,33 +69,46 @@ public class BufferArray implements StableStorage {
 	}
 	
 	@Override
-	public void putBallot(Long instance, int ballot) {
+	public synchronized void putBallot(Long instance, int ballot) {
 		promised.put(instance, ballot);
 	}
 
 	@Override
-	public int getBallot(Long instance) {
-		return promised.get(instance);
+	public synchronized void putBallotRange(Long from, Long to, int ballot) {
+		for(long i=from;i<to;i++){
+			promised.put(i, ballot);
+		}
+	}
+
+	@Override
+	public synchronized int getBallot(Long instance) {
+		Integer ballot = promised.get(instance);
+		return ballot == null ? 0 : ballot.intValue();
 	}
 
 	@Override
-	public boolean containsBallot(Long instance) {
+	public synchronized boolean containsBallot(Long instance) {
 		return promised.containsKey(instance);
 	}
 
 	@Override
 	public void putDecision(Long instance, Decision decision) {
 		Message m = new Message(instance, decision.getRing(), PaxosRole.Proposer, MessageType.Value, decision.getBallot(), decision.getBallot(), decision.getValue());
-		buffer[(int)(instance % max)].clear();
-		Message.toBuffer(buffer[(int)(instance % max)],m);
-		instances[(int)(instance % max)] = instance;
+		synchronized(buffer[(int)(instance % max)]){ // acceptor stripes
+			buffer[(int)(instance % max)].clear();
+			Message.toBuffer(buffer[(int)(instance % max)],m);
+			instances[(int)(instance % max)] = instance;
+		}
 	}
 
 	@Override
 	public Decision getDecision(Long instance) {
 		try {
-			buffer[(int)(instance % max)].rewind();
-			Message m = Message.fromBuffer(buffer[(int)(instance % max)]);
+			Message m;
+			synchronized(buffer[(int)(instance % max)]){
+				buffer[(int)(instance % max)].rewind();
+				m = Message.fromBuffer(buffer[(int)(instance % max)]);
+			}
 			if(m.getInstance() == instance){
 				Decision d = new Decision(m.getSender(),m.getInstance(),m.getBallot(),m.getValue());
 				return d;
@@ -119,16 +134,34 @@ public class BufferArray implements StableStorage {
 	}
 
 	@Override
-	public boolean trim(Long instance) {
+	public synchronized boolean trim(Long instance) {
 		last_trimmed_instance = instance;
 		return true;
 	}
 
 	@Override
-	public Long getLastTrimInstance() {
+	public synchronized Long getLastTrimInstance() {
 		return last_trimmed_instance;
 	}
 
+	@Override
+	public void snapshot(Snapshot snapshot) throws IOException {
+		Map<Long,Integer> p;
+		long trim;
+		synchronized(this){
+			p = new HashMap<Long,Integer>(promised);
+			trim = last_trimmed_instance;
+		}
+		snapshot.begin(trim,p);
+		for(int i=0;i<max;i++){ // copy one buffer at a time
+			Long instance = instances[i];
+			if(instance != null && instance > trim){
+				snapshot.add(getDecision(instance));
+			}
+		}
+		snapshot.commit();
+	}
+
 	@Override
 	public void close(){
 		
@@ -67,13 +67,21 @@ public class CyclicArray implements StableStorage {
 	}
 
 	@Override
-	public void putBallot(Long instance, int ballot) {
+	public synchronized void putBallot(Long instance, int ballot) {
 		promised.put(instance, ballot);
 	}
 
 	@Override
-	public int getBallot(Long instance) {
-		return promised.get(instance);
+	public synchronized void putBallotRange(Long from, Long to, int ballot) {
+		for(long i=from;i<to;i++){
+			promised.put(i, ballot);
+		}
+	}
+
+	@Override
+	public synchronized int getBallot(Long instance) {
+		Integer ballot = promised.get(instance);
+		return ballot == null ? 0 : ballot.intValue();
 	}
 
 	@Override
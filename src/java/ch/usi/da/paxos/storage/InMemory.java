@@ -18,7 +18,11 @@ package ch.usi.da.paxos.storage;
  * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import ch.usi.da.paxos.api.StableStorage;
@@ -33,7 +37,7 @@ import ch.usi.da.paxos.api.StableStorage;
  * 
  * @author Samuel Benz benz@geoid.ch
  */
-public class InMemory implements StableStorage {
+public class InMemory implements StableStorage, Snapshotable {
 	
 	private final Map<Long, Integer> promised = new LinkedHashMap<Long,Integer>(10000,0.75F,false){
 		private static final long serialVersionUID = -2704400128020327063L;
@@ -50,13 +54,21 @@ public class InMemory implements StableStorage {
 	}};
 	
 	@Override
-	public void putBallot(Long instance, int ballot) {
+	public synchronized void putBallot(Long instance, int ballot) {
 		promised.put(instance, ballot);
 	}
 
 	@Override
-	public int getBallot(Long instance) {
-		return promised.get(instance);
+	public synchronized void putBallotRange(Long from, Long to, int ballot) {
+		for(long i=from;i<to;i++){
+			promised.put(i, ballot);
+		}
+	}
+
+	@Override
+	public synchronized int getBallot(Long instance) {
+		Integer ballot = promised.get(instance);
+		return ballot == null ? 0 : ballot.intValue();
 	}
 
 	@Override
@@ -65,31 +77,48 @@ public class InMemory implements StableStorage {
 	}
 
 	@Override
-	public void putDecision(Long instance, Decision decision) {
+	public synchronized void putDecision(Long instance, Decision decision) {
 		decided.put(instance, decision);
 	}
 
 	@Override
-	public Decision getDecision(Long instance) {
+	public synchronized Decision getDecision(Long instance) {
 		return decided.get(instance);
 	}
 
 	@Override
-	public boolean containsDecision(Long instance) {
+	public synchronized boolean containsDecision(Long instance) {
 		return decided.containsKey(instance);
 	}
 
 	@Override
-	public boolean trim(Long instance) {
+	public synchronized boolean trim(Long instance) {
 		last_trimmed_instance = instance;
 		return true;
 	}
 
 	@Override
-	public Long getLastTrimInstance() {
+	public synchronized Long getLastTrimInstance() {
 		return last_trimmed_instance;
 	}
 
+	@Override
+	public void snapshot(Snapshot snapshot) throws IOException {
+		Map<Long,Integer> p;
+		List<Decision> d;
+		long trim;
+		synchronized(this){
+			p = new HashMap<Long,Integer>(promised);
+			d = new ArrayList<Decision>(decided.values());
+			trim = last_trimmed_instance;
+		}
+		snapshot.begin(trim,p);
+		for(Decision decision : d){
+			snapshot.add(decision);
+		}
+		snapshot.commit();
+	}
+
 	@Override
 	public void close(){
 		
@@ -22,13 +22,20 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
 import org.rocksdb.ColumnFamilyDescriptor;
 import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
 import org.rocksdb.DBOptions;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
 import org.rocksdb.WriteOptions;
 
 import ch.usi.da.paxos.Util;
@@ -37,12 +44,24 @@ import ch.usi.da.paxos.api.StableStorage;
 import ch.usi.da.paxos.message.Message;
 import ch.usi.da.paxos.message.MessageType;
 
-import com.sleepycat.je.DatabaseException;
-
 /**
  * Name: RocksDbStorage<br>
  * Description: <br>
  * 
+ * Keys are the 8 byte big-endian instance numbers (Util.longToByte), so the
+ * natural key order is the instance order. Both column families have a
+ * whole key bloom filter; contains* checks ask the filter first and never
+ * de-serialize a value. The ballot column family (point lookups only) also
+ * uses a fixed 8 byte prefix extractor for the memtable bloom. The decision
+ * column family is iterated by trim() and therefore stays in total order.
+ * The trim point lives in its own "meta" column family.
+ * 
+ * Ballot ranges and trims are written as one WriteBatch (one fsync in
+ * sync mode). Decisions are group committed: concurrent putDecision()
+ * calls (acceptor stripes) are collected in a WriteBatch which one of
+ * them writes while the others wait; every call returns after its
+ * decision is written. trim() seeks to the previous trim point.
+ * 
  * Creation date: Aug 4, 2015<br>
  * $Id$
  * 
@@ -52,14 +71,42 @@ public class RocksDbStorage implements StableStorage {
 
 	private final static Logger logger = Logger.getLogger(RocksDbStorage.class);
 
+	private final static byte[] trim_key = "last_trimmed_instance".getBytes();
+	
+	private final static int bloom_bits = 10;
+	
 	private RocksDB db = null;
 
 	private final DBOptions dboptions = new DBOptions();
 
+	private final ColumnFamilyOptions decisionoptions = new ColumnFamilyOptions();
+
+	private final ColumnFamilyOptions ballotoptions = new ColumnFamilyOptions();
+
+	private final BloomFilter bloom = new BloomFilter(bloom_bits);
+	
 	private final WriteOptions woptions = new WriteOptions();
 	
+	private ColumnFamilyHandle decisiondb;
+
 	private ColumnFamilyHandle ballotdb;
 
+	private ColumnFamilyHandle metadb;
+	
+	private final ReentrantLock commit_lock = new ReentrantLock();
+	
+	private final Condition committed = commit_lock.newCondition();
+	
+	private WriteBatch commit_batch = new WriteBatch(); // decisions of the next group commit
+	
+	private long queued = 0; // decisions put into a commit batch
+	
+	private long written = 0; // decisions written
+	
+	private boolean writing = false;
+	
+	private long last_trimmed_instance = 0;
+	
 	static {
 		RocksDB.loadLibrary();
 	}
@@ -87,16 +134,23 @@ public class RocksDbStorage implements StableStorage {
 		try {
 			dboptions.setCreateIfMissing(true);
 			dboptions.setCreateMissingColumnFamilies(true);
+			BlockBasedTableConfig table = new BlockBasedTableConfig();
+			table.setFilter(bloom);
+			table.setWholeKeyFiltering(true);
+			decisionoptions.setTableFormatConfig(table);
+			ballotoptions.setTableFormatConfig(table);
+			ballotoptions.useFixedLengthPrefixExtractor(8); // instance number
+			ballotoptions.setMemtablePrefixBloomBits(8*1024*1024);
 			List<ColumnFamilyDescriptor> cfdesc = new ArrayList<ColumnFamilyDescriptor>();
-			cfdesc.add(new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY));
-			cfdesc.add(new ColumnFamilyDescriptor("ballot".getBytes()));		
+			cfdesc.add(new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY,decisionoptions));
+			cfdesc.add(new ColumnFamilyDescriptor("ballot".getBytes(),ballotoptions));
+			cfdesc.add(new ColumnFamilyDescriptor("meta".getBytes()));
 		    List<ColumnFamilyHandle> cfhandle = new ArrayList<ColumnFamilyHandle>();
-			db = RocksDB.open(dboptions,file.toString(),cfdesc,cfhandle);			
-			for(ColumnFamilyHandle handle : cfhandle){ // better way to identify ColumnFamilyHandle ?
-				if(handle != db.getDefaultColumnFamily()){
-					ballotdb = handle;
-				}
-			}
+			db = RocksDB.open(dboptions,file.toString(),cfdesc,cfhandle);
+			decisiondb = cfhandle.get(0); // same order as cfdesc
+			ballotdb = cfhandle.get(1);
+			metadb = cfhandle.get(2);
+			last_trimmed_instance = readLastTrimInstance();
 		} catch (RocksDBException e) {
 			logger.error("RocksDbStorage DB create failed!", e);
 		}
@@ -107,7 +161,7 @@ public class RocksDbStorage implements StableStorage {
     		woptions.setSync(true);
     	}
         
-        logger.info("RocksDbStorage sync: " + woptions.sync());
+        logger.info("RocksDbStorage sync: " + woptions.sync() + " last trimmed instance: " + last_trimmed_instance);
 	}
 
 	@Override
@@ -119,17 +173,36 @@ public class RocksDbStorage implements StableStorage {
 		}
 	}
 
+	@Override
+	public synchronized void putBallotRange(Long from, Long to, int ballot) {
+		WriteBatch batch = new WriteBatch();
+		try {
+			byte[] b = Util.intToByte(ballot);
+			for(long i=from;i<to;i++){
+				batch.put(ballotdb,Util.longToByte(i),b);
+			}
+			db.write(woptions,batch);
+		} catch (RocksDBException e) {
+			logger.error("RocksDbStorage ballot range put failed!", e);
+		} finally {
+			batch.dispose();
+		}
+	}
+
 	@Override
 	public synchronized int getBallot(Long instance) {
 		try {
-			byte[] ret = db.get(ballotdb,Util.longToByte(instance));
-			if(ret != null){
-				return Util.byteToInt(ret);
+			byte[] key = Util.longToByte(instance);
+			if(db.keyMayExist(ballotdb,key,new StringBuffer())){
+				byte[] ret = db.get(ballotdb,key);
+				if(ret != null){
+					return Util.byteToInt(ret);
+				}
 			}
 		} catch (RocksDBException e) {
 			logger.error("RocksDbStorage ballot get failed!", e);
 		}
-		return -1;
+		return 0;
 	}
 
 	@Override
@@ -142,12 +215,38 @@ public class RocksDbStorage implements StableStorage {
 	}
 
 	@Override
-	public synchronized void putDecision(Long instance, Decision decision) {
+	public void putDecision(Long instance, Decision decision) {
 		Message m = new Message(decision.getInstance(), decision.getRing(), PaxosRole.Proposer, MessageType.Value, decision.getBallot(), decision.getBallot(), decision.getValue());
+		byte[] key = Util.longToByte(instance);
+		byte[] value = Message.toWire(m);
+		commit_lock.lock();
 		try {
-			db.put(woptions,Util.longToByte(instance),Message.toWire(m));
-		} catch (RocksDBException e) {
-			logger.error("RocksDbStorage decision put failed!", e);
+			commit_batch.put(decisiondb,key,value);
+			long n = ++queued;
+			while(written < n){
+				if(writing){
+					committed.awaitUninterruptibly(); // an other caller writes this decision
+				}else{ // write all queued decisions
+					WriteBatch batch = commit_batch;
+					long upto = queued;
+					commit_batch = new WriteBatch();
+					writing = true;
+					commit_lock.unlock();
+					try {
+						db.write(woptions,batch);
+					} catch (RocksDBException e) {
+						logger.error("RocksDbStorage decision put failed!", e);
+					} finally {
+						batch.dispose();
+						commit_lock.lock();
+						writing = false;
+						written = upto;
+						committed.signalAll();
+					}
+				}
+			}
+		} finally {
+			commit_lock.unlock();
 		}
 	}
 
@@ -155,7 +254,11 @@ public class RocksDbStorage implements StableStorage {
 	public synchronized Decision getDecision(Long instance) {
 	    Decision decision = null;
 		try {
-			byte[] ret = db.get(Util.longToByte(instance));
+			byte[] key = Util.longToByte(instance);
+			if(!db.keyMayExist(decisiondb,key,new StringBuffer())){
+				return null;
+			}
+			byte[] ret = db.get(decisiondb,key);
 			if(ret != null){
 				Message m = Message.fromWire(ret);
 				Decision d = new Decision(m.getSender(),m.getInstance(),m.getBallot(),m.getValue());
@@ -169,48 +272,86 @@ public class RocksDbStorage implements StableStorage {
 
 	@Override
 	public synchronized boolean containsDecision(Long instance) {
-		boolean found = false;
-		if(getDecision(instance) != null){
-			found = true;
+		try {
+			byte[] key = Util.longToByte(instance);
+			if(db.keyMayExist(decisiondb,key,new StringBuffer())){ // bloom filter
+				return db.get(decisiondb,key) != null; // no de-serialization
+			}
+		} catch (RocksDBException e) {
+			logger.error("RocksDbStorage decision contains failed!", e);
 		}
-		return found;
+		return false;
 	}
 	
 	@Override
 	public synchronized boolean trim(Long instance) {
 		if(instance == 0) { return true; } // fast track
-		long init = getLastTrimInstance();
-		putDecision(-1L,new Decision(0,instance,0,null));
-		for(long i = init; i < instance; i++){
-			try {
-				db.remove(Util.longToByte(i));
-			} catch (RocksDBException e) {
-				logger.error("RocksDbStorage decision remove failed!", e);
+		// rocksdbjni 3.10 has no deleteRange(); walk the (sorted) keys from
+		// the previous trim point to instance and delete them with the new
+		// trim point in one batch
+		WriteBatch batch = new WriteBatch();
+		RocksIterator it = db.newIterator(decisiondb);
+		try {
+			batch.put(metadb,trim_key,Util.longToByte(instance));
+			it.seek(Util.longToByte(Math.min(last_trimmed_instance,instance)));
+			while(it.isValid()){
+				byte[] key = it.key();
+				long i = Util.byteToLong(key);
+				if(i >= instance || i < 0){
+					break;
+				}
+				batch.remove(decisiondb,key);
+				it.next();
 			}
+			db.write(woptions,batch);
+			last_trimmed_instance = instance;
+		} catch (RocksDBException e) {
+			logger.error("RocksDbStorage decision trim failed!", e);
+			return false;
+		} finally {
+			it.dispose();
+			batch.dispose();
 		}
+		logger.debug("RocksDbStorage delete up to instance " + instance);
 		return true;
 	}
 
 	@Override
 	public synchronized Long getLastTrimInstance() {
-		Decision d = getDecision(-1L);
-		if(d != null){
-			return getDecision(-1L).getInstance();
-		}else{
-			return 0L;
+		return last_trimmed_instance;
+	}
+	
+	private long readLastTrimInstance() throws RocksDBException {
+		byte[] b = db.get(metadb,trim_key);
+		if(b != null){
+			return Util.byteToLong(b);
+		}
+		// db created with the old layout (trim sentinel decision at instance -1)
+		byte[] old = db.get(decisiondb,Util.longToByte(-1L));
+		if(old != null){
+			Message m = Message.fromWire(old);
+			if(m != null){
+				return m.getInstance();
+			}
 		}
+		return 0;
 	}
 	
 	@Override
 	public synchronized void close() {
-		try {
-			if(db != null){
-				db.close();
-			}
-			dboptions.dispose();
-		} catch(DatabaseException dbe) {
-			logger.error("Error closing db environment!",dbe);
+		if(db != null){
+			decisiondb.dispose();
+			ballotdb.dispose();
+			metadb.dispose();
+			db.close();
+			db = null;
 		}
+		commit_batch.dispose();
+		woptions.dispose();
+		decisionoptions.dispose();
+		ballotoptions.dispose();
+		dboptions.dispose();
+		bloom.dispose();
     }
 	
 }
@@ -0,0 +1,252 @@
+package ch.usi.da.paxos.storage;
+/*
+ * Copyright (c) 2015 Università della Svizzera italiana (USI)
+ *
+ * This file is part of URingPaxos.
+ *
+ * URingPaxos is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * URingPaxos is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import ch.usi.da.paxos.api.StableStorage;
+import ch.usi.da.paxos.message.Value;
+
+/**
+ * Name: Snapshot<br>
+ * Description: <br>
+ *
+ * Checkpoint file of an in-memory acceptor log (trim point, promised
+ * ballot ranges and the decisions above the trim point).
+ *
+ * A snapshot is written to a temporary file and atomically renamed on
+ * commit(); a crash during the write keeps the previous snapshot.
+ *
+ * Creation date: Oct 21, 2015<br>
+ * $Id$
+ *
+ * @author Samuel Benz benz@geoid.ch
+ */
+public class Snapshot {
+
+	private final static int MAGIC_NUMBER = 0x736e6170; // ASCII for "snap"
+
+	private final static int VERSION = 2; // 2: skip after batch
+
+	private final File file;
+
+	private final File tmp;
+
+	private FileOutputStream fos = null;
+
+	private DataOutputStream out = null;
+
+	private long trim = 0;
+
+	private long count = 0;
+
+	/**
+	 * @param file the snapshot file
+	 */
+	public Snapshot(File file){
+		this.file = file;
+		this.tmp = new File(file.getPath() + ".tmp");
+	}
+
+	/**
+	 * Start a new snapshot
+	 *
+	 * @param trim the last trimmed instance
+	 * @param promised the promised ballots (a copy)
+	 * @throws IOException
+	 */
+	public void begin(long trim, Map<Long,Integer> promised) throws IOException {
+		abort();
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		this.trim = trim;
+		count = 0;
+		fos = new FileOutputStream(tmp);
+		out = new DataOutputStream(new BufferedOutputStream(fos,1024*1024));
+		out.writeInt(MAGIC_NUMBER);
+		out.writeInt(VERSION);
+		out.writeLong(trim);
+		// compress consecutive instances with the same ballot to ranges
+		SortedMap<Long,Integer> sorted = new TreeMap<Long,Integer>(promised);
+		long from = -1;
+		long to = -1;
+		int ballot = 0;
+		for(Map.Entry<Long,Integer> e : sorted.entrySet()){
+			if(e.getKey() <= trim){
+				continue;
+			}
+			if(from >= 0 && e.getKey() == to && e.getValue() == ballot){
+				to++;
+			}else{
+				if(from >= 0){
+					writeRange(from,to,ballot);
+				}
+				from = e.getKey();
+				to = from + 1;
+				ballot = e.getValue();
+			}
+		}
+		if(from >= 0){
+			writeRange(from,to,ballot);
+		}
+		out.writeByte(0);
+	}
+
+	private void writeRange(long from, long to, int ballot) throws IOException {
+		out.writeByte(1);
+		out.writeLong(from);
+		out.writeLong(to);
+		out.writeInt(ballot);
+	}
+
+	/**
+	 * @param d a decision (ignored if trimmed)
+	 * @throws IOException
+	 */
+	public void add(Decision d) throws IOException {
+		if(d == null || d.getValue() == null || d.getInstance() <= trim){
+			return;
+		}
+		Value v = d.getValue();
+		out.writeByte(1);
+		out.writeInt(d.getRing());
+		out.writeLong(d.getInstance());
+		out.writeInt(d.getBallot());
+		out.writeInt(v.getByteID().length);
+		out.write(v.getByteID());
+		out.writeInt(v.getValue().length);
+		out.write(v.getValue());
+		out.writeBoolean(v.isBatch());
+		out.writeLong(v.getSkip());
+		count++;
+	}
+
+	/**
+	 * Flush, sync and replace the previous snapshot
+	 *
+	 * @throws IOException
+	 */
+	public void commit() throws IOException {
+		out.writeByte(0);
+		out.flush();
+		fos.getFD().sync();
+		out.close();
+		out = null;
+		fos = null;
+		Files.move(tmp.toPath(),file.toPath(),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Discard an unfinished snapshot
+	 */
+	public void abort(){
+		if(out != null){
+			try {
+				out.close();
+			} catch (IOException e) {
+			}
+			out = null;
+			fos = null;
+		}
+		tmp.delete();
+	}
+
+	/**
+	 * Load the last committed snapshot into a storage
+	 *
+	 * @param storage
+	 * @return the highest promised or decided instance (0 if there is no snapshot)
+	 * @throws IOException
+	 */
+	public long restore(StableStorage storage) throws IOException {
+		if(!file.exists()){
+			return 0;
+		}
+		long highest = 0;
+		count = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),1024*1024));
+		try {
+			int version = 0;
+			if(in.readInt() != MAGIC_NUMBER || (version = in.readInt()) < 1 || version > VERSION){
+				throw new IOException("Snapshot " + file + " has a wrong format!");
+			}
+			trim = in.readLong();
+			while(in.readByte() == 1){
+				long from = in.readLong();
+				long to = in.readLong();
+				storage.putBallotRange(from,to,in.readInt());
+				highest = Math.max(highest,to-1);
+			}
+			while(in.readByte() == 1){
+				int ring = in.readInt();
+				long instance = in.readLong();
+				int ballot = in.readInt();
+				byte[] id = new byte[in.readInt()];
+				in.readFully(id);
+				byte[] value = new byte[in.readInt()];
+				in.readFully(value);
+				boolean batch = in.readBoolean();
+				long skip = version > 1 ? in.readLong() : 0;
+				storage.putDecision(instance,new Decision(ring,instance,ballot,new Value(new String(id),value,batch,skip)));
+				highest = Math.max(highest,instance);
+				count++;
+			}
+		} catch (EOFException e) {
+			throw new IOException("Snapshot " + file + " is truncated!",e);
+		} finally {
+			in.close();
+		}
+		storage.trim(trim);
+		return Math.max(highest,trim);
+	}
+
+	/**
+	 * @return the snapshot file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the trim instance of the last written/restored snapshot
+	 */
+	public long getTrimInstance() {
+		return trim;
+	}
+
+	/**
+	 * @return the number of decisions of the last written/restored snapshot
+	 */
+	public long getCount() {
+		return count;
+	}
+
+}
@@ -0,0 +1,45 @@
+package ch.usi.da.paxos.storage;
+/*
+ * Copyright (c) 2015 Università della Svizzera italiana (USI)
+ *
+ * This file is part of URingPaxos.
+ *
+ * URingPaxos is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * URingPaxos is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+
+/**
+ * Name: Snapshotable<br>
+ * Description: <br>
+ *
+ * A volatile StableStorage which can be checkpointed to a Snapshot.
+ *
+ * Creation date: Oct 21, 2015<br>
+ * $Id$
+ *
+ * @author Samuel Benz benz@geoid.ch
+ */
+public interface Snapshotable {
+
+	/**
+	 * Write the current state; the storage is only locked while the
+	 * state is copied, not during the file I/O.
+	 *
+	 * @param snapshot
+	 * @throws IOException
+	 */
+	public void snapshot(Snapshot snapshot) throws IOException;
+
+}
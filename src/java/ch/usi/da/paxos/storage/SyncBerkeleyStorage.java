@@ -1,5 +1,7 @@
 package ch.usi.da.paxos.storage;
 
+import java.io.File;
+
 import ch.usi.da.paxos.api.StableStorage;
 /* 
  * Copyright (c) 2013 Università della Svizzera italiana (USI)
@@ -37,7 +39,14 @@ public class SyncBerkeleyStorage implements StableStorage {
 	private final BerkeleyStorage storage;
 	
 	public SyncBerkeleyStorage(){
-		storage = new BerkeleyStorage(null,false,false);
+		this(null);
+	}
+
+	/**
+	 * @param file the database directory (null: default)
+	 */
+	public SyncBerkeleyStorage(File file){
+		storage = new BerkeleyStorage(file,false,false);
 	}
 
 	@Override
@@ -45,6 +54,11 @@ public class SyncBerkeleyStorage implements StableStorage {
 		storage.putBallot(instance, ballot);		
 	}
 
+	@Override
+	public void putBallotRange(Long from, Long to, int ballot) {
+		storage.putBallotRange(from, to, ballot);
+	}
+
 	@Override
 	public int getBallot(Long instance) {
 		return storage.getBallot(instance);
@@ -0,0 +1,286 @@
+package ch.usi.da.paxos.storage;
+/*
+ * Copyright (c) 2015 Università della Svizzera italiana (USI)
+ *
+ * This file is part of URingPaxos.
+ *
+ * URingPaxos is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * URingPaxos is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with URingPaxos.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ch.usi.da.paxos.message.Value;
+
+/**
+ * Name: ValueCache<br>
+ * Description: <br>
+ *
+ * Bounded cache for values which are not yet decided (indirect consensus).
+ *
+ * Values are keyed by a 64 bit hash of the value ID; a hash collision is
+ * detected on get() and treated as a miss. Eviction is LRU as soon as
+ * the cached bytes exceed max_bytes, by age (max_age ms since the value
+ * was put; the entries are also linked in insertion order) and by
+ * instance once a value is bound to an instance below a trimmed/decided
+ * instance.
+ *
+ * Creation date: Oct 20, 2015<br>
+ * $Id$
+ *
+ * @author Samuel Benz benz@geoid.ch
+ */
+public class ValueCache {
+
+	private final static int entry_overhead = 64; // approx. object header, key and map entry
+
+	private final long max_bytes;
+
+	private final long max_age;
+
+	private long bytes = 0;
+
+	private long evicted = 0;
+
+	private final LinkedHashMap<Long,Entry> cache = new LinkedHashMap<Long,Entry>(10000,0.75F,true);
+
+	private Entry oldest = null; // insertion order (age)
+
+	private Entry newest = null;
+
+	/**
+	 * @param max_bytes maximal cached bytes
+	 * @param max_age maximal age of an entry in ms (0: disabled)
+	 */
+	public ValueCache(long max_bytes, long max_age){
+		this.max_bytes = max_bytes;
+		this.max_age = max_age;
+	}
+
+	/**
+	 * @param v the value to cache (replaces an existing entry)
+	 */
+	public synchronized void put(Value v){
+		long key = hash(v.getByteID());
+		Entry e = new Entry(key,v);
+		Entry old = cache.put(key,e);
+		if(old != null){
+			unlink(old);
+			bytes = bytes - old.size;
+		}
+		link(e);
+		bytes = bytes + e.size;
+		evict();
+	}
+
+	/**
+	 * @param ID the value ID
+	 * @return the cached value or null
+	 */
+	public synchronized Value get(String ID){
+		expire();
+		Entry e = cache.get(hash(ID.getBytes()));
+		if(e != null && e.value.getID().equals(ID)){
+			return e.value;
+		}
+		return null;
+	}
+
+	/**
+	 * @param ID the value ID
+	 * @return true if the value is cached
+	 */
+	public boolean contains(String ID){
+		return get(ID) != null;
+	}
+
+	/**
+	 * @param ID the value ID
+	 */
+	public synchronized void remove(String ID){
+		long key = hash(ID.getBytes());
+		Entry e = cache.get(key);
+		if(e != null && e.value.getID().equals(ID)){
+			cache.remove(key);
+			unlink(e);
+			bytes = bytes - e.size;
+		}
+	}
+
+	/**
+	 * Remember the instance in which the value was proposed
+	 *
+	 * @param ID the value ID
+	 * @param instance
+	 */
+	public synchronized void bind(String ID, long instance){
+		Entry e = cache.get(hash(ID.getBytes()));
+		if(e != null && e.value.getID().equals(ID)){
+			e.instance = instance;
+		}
+	}
+
+	/**
+	 * Remove all values bound to an instance &lt;= instance
+	 *
+	 * @param instance
+	 */
+	public synchronized void evictBelow(long instance){
+		Iterator<Entry> i = cache.values().iterator();
+		while(i.hasNext()){
+			Entry e = i.next();
+			if(e.instance > 0 && e.instance <= instance){
+				i.remove();
+				unlink(e);
+				bytes = bytes - e.size;
+				evicted++;
+			}
+		}
+	}
+
+	/**
+	 * @return number of cached values
+	 */
+	public synchronized int size(){
+		return cache.size();
+	}
+
+	/**
+	 * @return cached bytes
+	 */
+	public synchronized long getBytes(){
+		return bytes;
+	}
+
+	/**
+	 * @return number of evicted values
+	 */
+	public synchronized long getEvicted(){
+		return evicted;
+	}
+
+	private void evict(){
+		expire();
+		Iterator<Entry> i = cache.values().iterator();
+		while(i.hasNext() && bytes > max_bytes){
+			Entry e = i.next(); // least recently used first
+			i.remove();
+			unlink(e);
+			bytes = bytes - e.size;
+			evicted++;
+		}
+	}
+
+	/**
+	 * Remove the entries older than max_age (oldest put first)
+	 */
+	private void expire(){
+		if(max_age <= 0 || oldest == null){
+			return;
+		}
+		long time = System.currentTimeMillis();
+		while(oldest != null && time-oldest.date > max_age){
+			Entry e = oldest;
+			cache.remove(e.key);
+			unlink(e);
+			bytes = bytes - e.size;
+			evicted++;
+		}
+	}
+
+	private void link(Entry e){
+		e.older = newest;
+		if(newest != null){
+			newest.newer = e;
+		}else{
+			oldest = e;
+		}
+		newest = e;
+	}
+
+	private void unlink(Entry e){
+		if(e.older != null){
+			e.older.newer = e.newer;
+		}else if(oldest == e){
+			oldest = e.newer;
+		}
+		if(e.newer != null){
+			e.newer.older = e.older;
+		}else if(newest == e){
+			newest = e.older;
+		}
+		e.older = null;
+		e.newer = null;
+	}
+
+	private static int size(Value v){
+		return v.getByteID().length + v.getValue().length + entry_overhead;
+	}
+
+	/**
+	 * 64 bit FNV-1a hash
+	 *
+	 * @param b
+	 * @return the hash
+	 */
+	public static long hash(byte[] b){
+		long h = 0xcbf29ce484222325L;
+		for(int i=0;i<b.length;i++){
+			h = h ^ (b[i] & 0xff);
+			h = h * 0x100000001b3L;
+		}
+		return h;
+	}
+
+	private static class Entry {
+
+		private final long date = System.currentTimeMillis();
+
+		private final long key;
+
+		private final Value value;
+
+		private final int size;
+
+		private long instance = 0;
+
+		private Entry older = null;
+
+		private Entry newer = null;
+
+		public Entry(long key, Value value){
+			this.key = key;
+			this.value = value;
+			this.size = size(value);
+		}
+	}
+
+	public String toString(){
+		return "ValueCache(values:" + size() + " bytes:" + getBytes() + " evicted:" + getEvicted() + ")";
+	}
+
+	/**
+	 * Debug method
+	 *
+	 * @return a copy of the cached values
+	 */
+	public synchronized Map<String,Value> asMap(){
+		Map<String,Value> m = new LinkedHashMap<String,Value>();
+		for(Entry e : cache.values()){
+			m.put(e.value.getID(),e.value);
+		}
+		return m;
+	}
+}
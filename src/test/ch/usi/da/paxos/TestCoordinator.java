@@ -0,0 +1,140 @@
+package ch.usi.da.paxos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.usi.da.paxos.ring.PromisePool;
+import ch.usi.da.paxos.ring.TimerWheel;
+import ch.usi.da.paxos.storage.Promise;
+
+public class TestCoordinator {
+
+	Logger logger = Logger.getLogger("ch.usi.da");
+
+	@Before
+	public void initialize() throws Exception {
+		logger.setLevel(Level.ERROR);
+	}
+
+	@Test
+	public void PromisePool() throws Exception {
+		PromisePool pool = new PromisePool();
+		pool.add(1,4,10);
+		pool.add(10,12,20);
+		assertEquals(5,pool.size());
+		for(long i=1;i<=3;i++){
+			Promise p = pool.claim();
+			assertEquals(i,p.getInstance().longValue());
+			assertEquals(10,p.getBallot().intValue());
+		}
+		Promise p = pool.claim(); // the first range is exhausted
+		assertEquals(10,p.getInstance().longValue());
+		assertEquals(20,p.getBallot().intValue());
+		assertEquals(11,pool.claim().getInstance().longValue());
+		assertNull(pool.claim());
+		assertNull(pool.claim());
+		assertEquals(0,pool.size());
+		assertEquals(5,pool.getClaimed());
+
+		// a range added after all were exhausted
+		pool.add(20,22,30);
+		assertEquals(20,pool.claim().getInstance().longValue());
+		assertEquals(21,pool.claim(100).getInstance().longValue());
+		assertNull(pool.claim(100));
+
+		// every 3rd instance (coordinator shards)
+		pool = new PromisePool(3);
+		pool.add(2,11,5);
+		assertEquals(3,pool.size());
+		assertEquals(2,pool.claim(6).getInstance().longValue());
+		assertEquals(5,pool.claim(6).getInstance().longValue());
+		assertNull(pool.claim(6));
+		assertEquals(8,pool.claim().getInstance().longValue());
+		assertNull(pool.claim());
+		assertEquals(0,pool.size());
+
+		// concurrent claims get different instances
+		final PromisePool shared = new PromisePool();
+		shared.add(1,10001,1);
+		final Set<Long> instances = new HashSet<Long>();
+		Thread[] t = new Thread[4];
+		for(int i=0;i<t.length;i++){
+			t[i] = new Thread(){
+				public void run(){
+					Promise p;
+					while((p = shared.claim()) != null){
+						synchronized(instances){
+							instances.add(p.getInstance());
+						}
+					}
+				}
+			};
+			t[i].start();
+		}
+		for(Thread c : t){
+			c.join();
+		}
+		assertEquals(10000,instances.size());
+		assertTrue(instances.contains(1L) && instances.contains(10000L));
+		assertEquals(0,shared.size());
+	}
+
+	@Test
+	public void TimerWheel() throws Exception {
+		TimerWheel wheel = new TimerWheel(5,16); // one round: 80ms
+		Thread w = new Thread(wheel);
+		w.setDaemon(true);
+		w.start();
+		final AtomicInteger runs = new AtomicInteger(0);
+		final AtomicLong time = new AtomicLong(0);
+		Runnable task = new Runnable(){
+			public void run(){
+				runs.incrementAndGet();
+				time.set(System.currentTimeMillis());
+			}
+		};
+
+		// cancelled before it is due
+		TimerWheel.Timeout t = wheel.schedule(task,30);
+		t.cancel();
+		assertTrue(t.isCancelled());
+		Thread.sleep(100);
+		assertEquals(0,runs.get());
+
+		// re-armed: cancel and schedule again
+		long start = System.currentTimeMillis();
+		t = wheel.schedule(task,30);
+		Thread.sleep(10);
+		t.cancel();
+		t = wheel.schedule(task,60);
+		Thread.sleep(200);
+		assertEquals(1,runs.get());
+		assertTrue(time.get()-start >= 60);
+		assertFalse(t.isCancelled());
+		t.cancel(); // after it ran: no effect
+		assertEquals(1,runs.get());
+
+		// more than one round of the wheel
+		start = System.currentTimeMillis();
+		wheel.schedule(task,200);
+		Thread.sleep(120);
+		assertEquals(1,runs.get());
+		Thread.sleep(200);
+		assertEquals(2,runs.get());
+		assertTrue(time.get()-start >= 200);
+		w.interrupt();
+	}
+
+}
@@ -0,0 +1,259 @@
+package ch.usi.da.paxos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.usi.da.paxos.api.DecisionHandler;
+import ch.usi.da.paxos.message.Value;
+import ch.usi.da.paxos.ring.DecisionQueue;
+import ch.usi.da.paxos.ring.DuplicateFilter;
+import ch.usi.da.paxos.ring.PositionIndex;
+import ch.usi.da.paxos.ring.ReorderWindow;
+import ch.usi.da.paxos.storage.Decision;
+
+public class TestLearner {
+
+	Logger logger = Logger.getLogger("ch.usi.da");
+
+	@Before
+	public void initialize() throws Exception {
+		logger.setLevel(Level.ERROR);
+	}
+
+	@Test
+	public void PositionIndex() throws Exception {
+		File f = File.createTempFile("ringpaxos-position",null);
+		try {
+			PositionIndex index = new PositionIndex(f,1000,1,1);
+
+			// merge: value, its piggybacked skip, a batch (3 entries) and a value
+			Decision[] merge = new Decision[6];
+			merge[0] = new Decision(1,1L,10,new Value("a","a".getBytes()));
+			merge[1] = new Decision(1,1L,10,Value.skip("SKIP:1:1",2));
+			merge[2] = new Decision(1,2L,10,new Value("b1","b1".getBytes()));
+			merge[3] = new Decision(1,2L,10,new Value("b2","b2".getBytes()));
+			merge[4] = new Decision(1,2L,10,new Value("b3","b3".getBytes()));
+			merge[5] = new Decision(1,3L,10,new Value("c","c".getBytes()));
+			long v_count = 0;
+			for(Decision d : merge){
+				index.record(d.getInstance(),v_count);
+				v_count = v_count + (d.getValue().isSkip() ? d.getValue().getSkip() : 1);
+			}
+			assertEquals(0,index.get(1L));
+			assertEquals(3,index.get(2L));
+			assertEquals(6,index.get(3L));
+			assertEquals(-1,index.get(4L));
+			assertFalse(index.record(2L,100));
+			assertEquals(3,index.get(2L));
+
+			// slot reused one capacity later
+			index.record(1025L,50);
+			assertEquals(-1,index.get(1L));
+			assertEquals(50,index.get(1025L));
+			index.close();
+
+			// reopen the mapped file
+			index = new PositionIndex(f,1000,1,1);
+			assertTrue(index.isRestored());
+			assertEquals(1,index.getStart());
+			assertEquals(3,index.get(2L));
+			assertEquals(50,index.get(1025L));
+			index.close();
+
+			// other M: the file is not trusted
+			index = new PositionIndex(f,1000,1,2);
+			assertFalse(index.isRestored());
+			assertEquals(-1,index.get(2L));
+			index.close();
+
+			// other ring
+			index = new PositionIndex(f,1000,2,2);
+			assertFalse(index.isRestored());
+			index.record(500L,7);
+
+			// instances started again
+			index.record(1L,0);
+			assertEquals(1,index.getStart());
+			assertEquals(-1,index.get(500L));
+			assertEquals(0,index.get(1L));
+			index.close();
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void ReorderWindow() throws Exception {
+		ReorderWindow w = new ReorderWindow(64,256);
+
+		// out of order
+		assertTrue(w.add(decision(3)));
+		assertTrue(w.add(decision(2)));
+		assertNull(w.poll());
+		assertEquals(Arrays.asList(1L),w.getMissing());
+		assertTrue(w.add(decision(1)));
+		assertEquals(1,w.poll().getInstance().longValue());
+		assertEquals(2,w.poll().getInstance().longValue());
+		assertEquals(3,w.poll().getInstance().longValue());
+		assertNull(w.poll());
+		assertTrue(w.isEmpty());
+		assertEquals(4,w.getBase());
+		assertFalse(w.add(decision(3))); // delivered
+		assertTrue(w.add(decision(5)));
+		assertFalse(w.add(decision(5))); // already in the window
+
+		// the window grows up to max slots
+		assertTrue(w.add(decision(67)));
+		assertTrue(w.add(decision(104)));
+		assertFalse(w.add(decision(4+256))); // too far ahead
+		assertEquals(3,w.size());
+		assertEquals(104,w.getLast());
+		assertEquals(98,w.getMissing().size()); // 4, 6-66, 68-103
+		assertTrue(w.add(decision(4)));
+		assertEquals(4,w.poll().getInstance().longValue());
+		assertEquals(5,w.poll().getInstance().longValue());
+		assertNull(w.poll());
+
+		// slide over the end of the array
+		for(long i=6;i<=600;i++){
+			if(i != 67 && i != 104){
+				w.add(decision(i));
+			}
+			assertEquals(i,w.poll().getInstance().longValue());
+		}
+		assertTrue(w.isEmpty());
+
+		// move the window
+		assertTrue(w.add(decision(650)));
+		assertTrue(w.add(decision(700)));
+		w.setBase(660);
+		assertEquals(1,w.size());
+		assertEquals(660,w.getBase());
+		assertEquals(700,w.getLast());
+		assertEquals(40,w.getMissing().size());
+	}
+
+	@Test
+	public void DuplicateFilter() throws Exception {
+		DuplicateFilter f = new DuplicateFilter(1024); // two tables of 64 slots
+
+		// IDs with the same slot (but other hashes) are probed linearly
+		List<String> same = new ArrayList<String>();
+		for(int i=0;same.size()<8;i++){
+			long h = DuplicateFilter.hash("id" + i);
+			if(((int)(h ^ (h >>> 32)) & 63) == 5){
+				same.add("id" + i);
+			}
+		}
+		for(String ID : same){
+			assertFalse(f.contains(ID));
+			assertTrue(f.add(ID));
+		}
+		for(String ID : same){
+			assertTrue(f.contains(ID));
+			assertFalse(f.add(ID)); // duplicate
+		}
+		assertEquals(8,f.size());
+
+		// the older table is cleared when the current one is half full
+		f = new DuplicateFilter(1024);
+		for(int i=0;i<100;i++){
+			assertTrue(f.add("r" + i));
+		}
+		assertTrue(f.contains("r99"));
+		assertTrue(f.contains("r68"));
+		assertFalse(f.contains("r0"));
+		assertTrue(f.size() >= 32 && f.size() <= 64);
+		assertTrue(f.add("r0")); // forgotten
+	}
+
+	@Test
+	public void DecisionQueue() throws Exception {
+		final DecisionQueue q = new DecisionQueue(4,0);
+		final Decision[] b = new Decision[8];
+
+		// a sleeping consumer is woken up by the producer
+		final long[] drained = new long[2];
+		Thread c = new Thread(){
+			public void run(){
+				try {
+					long t = System.nanoTime();
+					drained[0] = q.drain(b,5,TimeUnit.SECONDS);
+					drained[1] = System.nanoTime()-t;
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		c.start();
+		Thread.sleep(100);
+		q.put(decision(1));
+		c.join(5000);
+		assertEquals(1,drained[0]);
+		assertTrue(drained[1] < TimeUnit.SECONDS.toNanos(4));
+		assertEquals(1,b[0].getInstance().longValue());
+		assertEquals(0,q.drain(b,10,TimeUnit.MILLISECONDS)); // timeout
+
+		// a full buffer blocks the producer
+		for(long i=2;i<=5;i++){
+			assertTrue(q.offer(decision(i)));
+		}
+		assertFalse(q.offer(decision(6)));
+		assertFalse(q.offer(decision(6),10,TimeUnit.MILLISECONDS));
+		assertEquals(0,q.remainingCapacity());
+		Thread p = new Thread(){
+			public void run(){
+				try {
+					q.put(decision(6));
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		p.start();
+		Thread.sleep(100);
+		assertTrue(p.isAlive());
+		assertEquals(2,q.take().getInstance().longValue());
+		p.join(5000);
+		assertFalse(p.isAlive());
+		assertEquals(4,q.drain(b,0,TimeUnit.MILLISECONDS));
+		for(int i=0;i<4;i++){
+			assertEquals(i+3,b[i].getInstance().longValue());
+		}
+		assertTrue(q.isEmpty());
+
+		// a direct handler gets the queued decisions before the new ones
+		final List<Long> handled = new ArrayList<Long>();
+		q.put(decision(7));
+		q.put(decision(8));
+		q.setHandler(new DecisionHandler(){
+			public void deliver(Decision[] decisions, int count){
+				for(int i=0;i<count;i++){
+					handled.add(decisions[i].getInstance());
+				}
+			}
+		},true);
+		q.put(decision(9));
+		q.putAll(new Decision[]{ decision(10), decision(11) },2);
+		q.setHandler(null,true);
+		q.put(decision(12));
+		assertEquals(Arrays.asList(7L,8L,9L,10L,11L),handled);
+		assertEquals(12,q.take().getInstance().longValue());
+	}
+
+	private static Decision decision(long instance){
+		return new Decision(1,instance,10,new Value("v" + instance,new byte[1]));
+	}
+
+}
@@ -2,6 +2,9 @@ package ch.usi.da.paxos;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Test;
 
 import ch.usi.da.paxos.api.PaxosRole;
@@ -10,6 +13,7 @@ import ch.usi.da.paxos.message.ControlType;
 import ch.usi.da.paxos.message.Message;
 import ch.usi.da.paxos.message.MessageType;
 import ch.usi.da.paxos.message.Value;
+import ch.usi.da.paxos.message.ValuePack;
 
 public class TestMessage {
 
@@ -58,4 +62,47 @@ public class TestMessage {
 		assertEquals(false,c.equals(c4));
 	}
 
+	@Test
+	public void serializePack() throws Exception {
+		Value v1 = new Value("id1","Value1".getBytes());
+		Value v2 = new Value("id2","Value2".getBytes());
+		List<String> IDs = Arrays.asList("id1","id2");
+		Value p = ValuePack.create(Value.getPackID(),IDs);
+		assertEquals(true,p.isPack());
+		assertEquals(false,p.isBatch());
+		assertEquals(IDs,ValuePack.getIDs(p));
+		
+		Value b = ValuePack.toBatch(p.getID(),Arrays.asList(v1,v2));
+		assertEquals(p,b); // compared by ID
+		assertEquals(true,b.isPack());
+		assertEquals(true,b.isBatch());
+		assertEquals(IDs,ValuePack.getIDs(b));
+		
+		Message m = new Message(1L, 10, PaxosRole.Learner, MessageType.Decision, 10, 10, b);
+		assertEquals(IDs,ValuePack.getIDs(Message.fromWire(Message.toWire(m)).getValue()));
+	}
+
+	@Test
+	public void serializeSkip() throws Exception {
+		Value v = new Value("id1","Value1".getBytes()).withSkip(42);
+		Message m = new Message(1L, 10, PaxosRole.Learner, MessageType.Decision, 10, 10, v);
+		assertEquals(Message.length(m),Message.toWire(m).length);
+		Value v2 = Message.fromWire(Message.toWire(m)).getValue();
+		assertEquals(42,v2.getSkip());
+		assertEquals(false,v2.isSkip());
+		assertEquals("Value1",new String(v2.getValue()));
+		
+		v = Value.skip(Value.getSkipID(),7);
+		m = new Message(1L, 10, PaxosRole.Learner, MessageType.Decision, 10, 10, v);
+		v2 = Message.fromWire(Message.toWire(m)).getValue();
+		assertEquals(true,v2.isSkip());
+		assertEquals(7,v2.getSkip());
+		
+		v = new Value("id2","Value2".getBytes(),true).withSkip(3);
+		m = new Message(1L, 10, PaxosRole.Learner, MessageType.Decision, 10, 10, v);
+		v2 = Message.fromWire(Message.toWire(m)).getValue();
+		assertEquals(true,v2.isBatch());
+		assertEquals(3,v2.getSkip());
+	}
+
 }
@@ -3,6 +3,7 @@ package ch.usi.da.paxos;
 import static org.junit.Assert.assertEquals;
 
 import java.io.File;
+import java.nio.file.Files;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -16,6 +17,8 @@ import ch.usi.da.paxos.storage.BufferArray;
 import ch.usi.da.paxos.storage.Decision;
 import ch.usi.da.paxos.storage.InMemory;
 import ch.usi.da.paxos.storage.RocksDbStorage;
+import ch.usi.da.paxos.storage.Snapshot;
+import ch.usi.da.paxos.storage.ValueCache;
 
 public class TestStorage {
 
@@ -38,6 +41,7 @@ public class TestStorage {
 		assertEquals(d,db.getDecision(1L));
 
 		assertEquals(false,db.containsBallot(1L));		
+		assertEquals(0,db.getBallot(1L));
 		db.putBallot(1L,100);
 		assertEquals(true,db.containsBallot(1L));
 		assertEquals(100,db.getBallot(1L));
@@ -63,6 +67,7 @@ public class TestStorage {
 		assertEquals(d,db.getDecision(1L));
 
 		assertEquals(false,db.containsBallot(1L));		
+		assertEquals(0,db.getBallot(1L));
 		db.putBallot(1L,100);
 		assertEquals(true,db.containsBallot(1L));
 		assertEquals(100,db.getBallot(1L));
@@ -70,6 +75,80 @@ public class TestStorage {
 		db.close();
 	}
 
+	@Test
+	public void ValueCache() throws Exception {
+		ValueCache cache = new ValueCache(1024,0);
+		Value v1 = new Value("id1",new byte[400]);
+		Value v2 = new Value("id2",new byte[400]);
+		Value v3 = new Value("id3",new byte[400]);
+		
+		cache.put(v1);
+		cache.put(v2);
+		assertEquals(v1,cache.get("id1")); // v1 is now most recently used
+		cache.put(v3);
+		assertEquals(2,cache.size());
+		assertEquals(null,cache.get("id2"));
+		assertEquals(true,cache.contains("id1"));
+		assertEquals(true,cache.contains("id3"));
+		assertEquals(true,cache.getBytes() <= 1024);
+		
+		cache.bind("id1",5);
+		cache.bind("id3",7);
+		cache.evictBelow(5);
+		assertEquals(false,cache.contains("id1"));
+		assertEquals(true,cache.contains("id3"));
+		cache.remove("id3");
+		assertEquals(0,cache.size());
+		assertEquals(0,cache.getBytes());
+	}
+
+	@Test
+	public void ValueCacheAge() throws Exception {
+		ValueCache cache = new ValueCache(1048576,200);
+		cache.put(new Value("id1",new byte[400]));
+		Thread.sleep(120);
+		cache.put(new Value("id2",new byte[400]));
+		assertEquals(true,cache.contains("id1")); // recently used, but put first
+		Thread.sleep(120);
+		assertEquals(false,cache.contains("id1"));
+		assertEquals(true,cache.contains("id2"));
+		Thread.sleep(120);
+		assertEquals(false,cache.contains("id2"));
+		assertEquals(0,cache.size());
+		assertEquals(0,cache.getBytes());
+	}
+
+	@Test
+	public void Snapshot() throws Exception {
+		File file = new File("/tmp/ringpaxos-snapshot/test0");
+		file.delete();
+		Snapshot snapshot = new Snapshot(file);
+		
+		InMemory db = new InMemory();
+		assertEquals(0,snapshot.restore(db));
+		Decision d = new Decision(0,3L,42,new Value("id","value".getBytes()));
+		db.putBallotRange(1L,11L,10);
+		db.putBallot(5L,20);
+		db.putDecision(2L,new Decision(0,2L,10,new Value("id2","value".getBytes())));
+		db.putDecision(3L,d);
+		db.trim(2L);
+		db.snapshot(snapshot);
+		assertEquals(1,snapshot.getCount());
+		
+		InMemory db2 = new InMemory();
+		assertEquals(10,snapshot.restore(db2));
+		assertEquals(new Long(2),db2.getLastTrimInstance());
+		assertEquals(false,db2.containsBallot(2L));
+		assertEquals(10,db2.getBallot(4L));
+		assertEquals(20,db2.getBallot(5L));
+		assertEquals(10,db2.getBallot(10L));
+		assertEquals(false,db2.containsBallot(11L));
+		assertEquals(false,db2.containsDecision(2L));
+		assertEquals(d,db2.getDecision(3L));
+		assertEquals("value",new String(db2.getDecision(3L).getValue().getValue()));
+		assertEquals(new Integer(42),db2.getDecision(3L).getBallot());
+	}
+
 	@Test
 	public void BerkeleyStorage() throws Exception {
 		File file = new File("/tmp/ringpaxos-db/0");
@@ -127,7 +206,16 @@ public class TestStorage {
 
 	@Test
 	public void RocksDbStorage() throws Exception {
-		RocksDbStorage db = new RocksDbStorage();
+		File file = Files.createTempDirectory("ringpaxos-rocks").toFile();
+		try {
+			rocksDbStorage(file);
+		} finally {
+			delete(file);
+		}
+	}
+
+	private void rocksDbStorage(File file) throws Exception {
+		RocksDbStorage db = new RocksDbStorage(file,false);
 
 		Decision d = new Decision(0,1L,42,new Value("id","value".getBytes()));
 		Decision d2 = new Decision(0,1L,43,new Value("id","value".getBytes()));
@@ -149,8 +237,9 @@ public class TestStorage {
 		db.putDecision(9L,d);
 		db.putDecision(10L,d);
 		assertEquals(true,db.trim(7L));
-		assertEquals(new Long(7),db.getDecision(-1L).getInstance());
+		assertEquals(new Long(7),db.getLastTrimInstance());
 		assertEquals(null,db.getDecision(6L));
+		assertEquals(false,db.containsDecision(6L));
 		assertEquals(d,db.getDecision(7L));		
 		
 		// ballots are not trimmed assertEquals(false,db.containsBallot(1L));		
@@ -158,7 +247,53 @@ public class TestStorage {
 		assertEquals(true,db.containsBallot(1L));
 		assertEquals(100,db.getBallot(1L));
 
-		db.close();		
+		db.putBallotRange(20L,30L,11);
+		assertEquals(true,db.containsBallot(20L));
+		assertEquals(11,db.getBallot(29L));
+		assertEquals(false,db.containsBallot(30L));
+
+		db.close();
+		
+		// re-open
+		db = new RocksDbStorage(file,false);
+		assertEquals(new Long(7),db.getLastTrimInstance());
+		assertEquals(d,db.getDecision(7L));		
+		assertEquals(100,db.getBallot(1L));
+		assertEquals(true,db.trim(9L));
+		assertEquals(null,db.getDecision(8L));
+		assertEquals(d,db.getDecision(9L));
+
+		// group commit of concurrent decisions
+		final RocksDbStorage rocks = db;
+		Thread[] t = new Thread[4];
+		for(int i=0;i<t.length;i++){
+			final long first = 100+i*100;
+			t[i] = new Thread(){
+				public void run(){
+					for(long n=first;n<first+100;n++){
+						rocks.putDecision(n,new Decision(0,n,42,new Value("id" + n,"value".getBytes())));
+					}
+				}
+			};
+			t[i].start();
+		}
+		for(Thread c : t){
+			c.join();
+		}
+		for(long n=100;n<500;n++){
+			assertEquals(true,db.containsDecision(n));
+		}
+		db.close();
+	}
+
+	private static void delete(File f){
+		File[] files = f.listFiles();
+		if(files != null){
+			for(File c : files){
+				delete(c);
+			}
+		}
+		f.delete();
 	}
 
 }